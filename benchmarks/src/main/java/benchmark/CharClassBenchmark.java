@@ -0,0 +1,73 @@
+package benchmark;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.grammar.Grammar;
+import org.iguana.grammar.symbol.Symbol;
+import org.iguana.parser.IguanaParser;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.utils.input.Input;
+import org.openjdk.jmh.annotations.*;
+import util.GeneratedParser;
+import util.RascalGrammarToIguanaGrammarConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parse time per input character of a Pico program that consists mostly of identifiers and
+ * whitespace, i.e., of character classes. The character classes of the grammar are either as Rascal defines them,
+ * which are normalized already, or split into a range per character, and they are converted with or without
+ * normalizing them, to compare the matchers Iguana compiles for both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xss128m", "-Xmx4G" })
+public class CharClassBenchmark {
+
+    private static final int CHARS = 100_000;
+
+    @Param({ "rascal", "split" })
+    public String classes;
+
+    @Param({ "true", "false" })
+    public boolean normalize;
+
+    private Input input;
+    private Symbol start;
+    private IguanaParser iguanaParser;
+
+    @Setup
+    public void setup() throws Exception {
+        String grammarExpression = "expand(" + Language.PICO.type + ")";
+        if (classes.equals("split")) {
+            grammarExpression = "visit (" + grammarExpression + ") { case \\char-class(rs) => \\char-class([range(c, c) | range(b, e) <- rs, int c <- [b..e + 1]]) }";
+        }
+        IConstructor grammar = (IConstructor) Rascal.eval(grammarExpression);
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter(false, false, normalize).convert(grammar);
+        start = GeneratedParser.getStartSymbol((IConstructor) ((IConstructor) Rascal.eval(Language.PICO.type)).get(0));
+        iguanaParser = new IguanaParser(converted);
+        input = Input.fromString(identifiers());
+    }
+
+    // begin declare identifier0 : natural; identifier0 := identifier1; ... end, padded with spaces to CHARS
+    private static String identifiers() {
+        StringBuilder program = new StringBuilder("begin declare identifier0 : natural;\n");
+        String end = "\nend";
+        for (int i = 0; program.length() < CHARS - 200; i++) {
+            program.append(i == 0 ? "  " : ";\n  ").append("identifier").append(i).append(" := identifier").append(i + 1);
+        }
+        while (program.length() < CHARS - end.length()) {
+            program.append(' ');
+        }
+        return program.append(end).toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public NonterminalNode parsePerChar() {
+        iguanaParser.parse(input, start);
+        return iguanaParser.getSPPF();
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.grammar.Grammar;
+import org.iguana.parser.IguanaParser;
+import org.openjdk.jmh.annotations.*;
+import util.RascalGrammarToIguanaGrammarConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a Rascal grammar to an Iguana grammar, and the construction of an Iguana parser from
+ * the converted grammar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xss128m", "-Xmx4G" })
+public class GrammarConversionBenchmark {
+
+    @Param({ "PICO", "RASCAL" })
+    public Language language;
+
+    private IConstructor grammar;
+    private Grammar converted;
+
+    @Setup
+    public void setup() {
+        grammar = (IConstructor) Rascal.eval("expand(" + language.type + ")");
+        converted = new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+    }
+
+    @Benchmark
+    public Grammar convert() {
+        return new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+    }
+
+    @Benchmark
+    public IguanaParser constructParser() {
+        return new IguanaParser(converted);
+    }
+}
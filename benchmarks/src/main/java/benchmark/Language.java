@@ -0,0 +1,18 @@
+package benchmark;
+
+public enum Language {
+    PICO("lang::pico::\\syntax::Main", "#start[Program]"),
+    RASCAL("lang::rascal::\\syntax::Rascal", "#start[Module]");
+
+    final String module;
+    final String type;
+
+    Language(String module, String type) {
+        this.module = module;
+        this.type = type;
+    }
+
+    static Language of(String input) {
+        return input.endsWith(".pico") ? PICO : RASCAL;
+    }
+}
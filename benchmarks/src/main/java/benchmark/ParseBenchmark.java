@@ -0,0 +1,154 @@
+package benchmark;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IFunction;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.iguana.grammar.Grammar;
+import org.iguana.grammar.symbol.Symbol;
+import org.iguana.parser.IguanaParser;
+import org.iguana.result.ParserResultOps;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.traversal.DefaultSPPFToParseTreeVisitor;
+import org.iguana.utils.input.Input;
+import org.openjdk.jmh.annotations.*;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import util.CompactLexicalSPPFToParseTreeVisitor;
+import util.GeneratedParser;
+import util.InputUtils;
+import util.RascalGrammarToIguanaGrammarConverter;
+import util.RascalParseTreeBuilder;
+import util.TreeCache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing with a generated Iguana parser, split in the parse itself and building the Rascal tree from the
+ * SPPF, against Rascal's own parser. Run with -prof gc for the allocation rates; sppfToTreeAllocation also reports the
+ * bytes allocated per input character.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xss128m", "-Xmx4G" })
+public class ParseBenchmark {
+
+    @Param({
+        "pico/fac.pico",
+        "pico/assoc.pico",
+        "pico/prio.pico",
+        "std:///List.rsc",
+        "std:///ParseTree.rsc",
+        "std:///lang/rascal/syntax/Rascal.rsc"
+    })
+    public String file;
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+
+    private ISourceLocation location;
+    private Input input;
+    private IValue text;
+    private IConstructor symbol;
+    private Symbol start;
+    private IguanaParser iguanaParser;
+    private GeneratedParser generatedParser;
+    private NonterminalNode sppf;
+    private IFunction rascalParser;
+    private TreeCache treeCache;
+
+    /**
+     * Reports the bytes allocated per input character, averaged over the calls of an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocation {
+        private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private long bytes;
+        private long chars;
+        public double bytesPerChar;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            chars = 0;
+            bytesPerChar = 0;
+        }
+
+        long allocatedBytes() {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        void record(long allocated, int length) {
+            bytes += allocated;
+            chars += length;
+            bytesPerChar = (double) bytes / chars;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Language language = Language.of(file);
+        location = Rascal.getLocation(file);
+        input = InputUtils.fromLocation(location);
+        text = Rascal.eval("readFile(" + location + ")");
+
+        IConstructor grammar = (IConstructor) Rascal.eval("expand(" + language.type + ")");
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+        symbol = (IConstructor) ((IConstructor) Rascal.eval(language.type)).get(0);
+        start = GeneratedParser.getStartSymbol(symbol);
+
+        iguanaParser = new IguanaParser(converted);
+        iguanaParser.parse(input, start);
+        sppf = iguanaParser.getSPPF();
+        generatedParser = new GeneratedParser(vf, converted);
+        treeCache = new TreeCache(vf);
+        rascalParser = (IFunction) Rascal.eval("parser(" + language.type + ")");
+    }
+
+    @Benchmark
+    public NonterminalNode iguanaParse() {
+        iguanaParser.parse(input, start);
+        return iguanaParser.getSPPF();
+    }
+
+    @Benchmark
+    public ITree sppfToTree() {
+        RascalParseTreeBuilder parseTreeBuilder = new RascalParseTreeBuilder(vf, input, location);
+        return sppf.accept(new DefaultSPPFToParseTreeVisitor<>(parseTreeBuilder, input, false, new ParserResultOps()));
+    }
+
+    // Builds the tree with the character and literal trees shared between iterations, as a generated parser does, and
+    // counts the bytes allocated per input character.
+    @Benchmark
+    public ITree sppfToTreeAllocation(Allocation allocation) {
+        long before = allocation.allocatedBytes();
+        RascalParseTreeBuilder parseTreeBuilder = new RascalParseTreeBuilder(vf, input, location, treeCache);
+        ITree tree = sppf.accept(new DefaultSPPFToParseTreeVisitor<>(parseTreeBuilder, input, false, new ParserResultOps()));
+        allocation.record(allocation.allocatedBytes() - before, input.length());
+        return tree;
+    }
+
+    // As sppfToTreeAllocation, with compact lexicals, to compare the bytes allocated per input character.
+    @Benchmark
+    public ITree sppfToCompactTreeAllocation(Allocation allocation) {
+        long before = allocation.allocatedBytes();
+        RascalParseTreeBuilder parseTreeBuilder = new RascalParseTreeBuilder(vf, input, location, treeCache);
+        ITree tree = sppf.accept(new CompactLexicalSPPFToParseTreeVisitor(parseTreeBuilder, input));
+        allocation.record(allocation.allocatedBytes() - before, input.length());
+        return tree;
+    }
+
+    @Benchmark
+    public ITree iguanaParseAndBuildTree() {
+        return generatedParser.parse(symbol, input, location);
+    }
+
+    @Benchmark
+    public IValue rascalParse() {
+        return rascalParser.call(text, location);
+    }
+}
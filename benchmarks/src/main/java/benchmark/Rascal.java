@@ -0,0 +1,58 @@
+package benchmark;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.rascalmpl.interpreter.Evaluator;
+import org.rascalmpl.interpreter.env.GlobalEnvironment;
+import org.rascalmpl.interpreter.env.ModuleEnvironment;
+import org.rascalmpl.interpreter.load.StandardLibraryContributor;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.ValueFactoryFactory;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs Rascal code for the setup of the benchmarks, e.g., to reify a grammar or to create Rascal's own parser.
+ */
+public class Rascal {
+
+    private static Evaluator evaluator;
+
+    public static synchronized IValue eval(String expression) {
+        return getEvaluator().eval(null, expression, URIUtil.rootLocation("benchmark")).getValue();
+    }
+
+    // The root of the rascal-iguana project, by default the parent of the benchmarks directory.
+    public static Path getProjectRoot() {
+        return Paths.get(System.getProperty("rascal.iguana.root", "..")).toAbsolutePath().normalize();
+    }
+
+    // Inputs are either a URI, e.g., std:///List.rsc, or a path relative to the examples directory.
+    public static ISourceLocation getLocation(String input) throws URISyntaxException {
+        if (input.contains(":///")) {
+            return URIUtil.createFromURI(input);
+        }
+        return URIUtil.createFileLocation(getProjectRoot().resolve("examples").resolve(input).toString());
+    }
+
+    private static Evaluator getEvaluator() {
+        if (evaluator == null) {
+            GlobalEnvironment heap = new GlobalEnvironment();
+            ModuleEnvironment root = heap.addModule(new ModuleEnvironment("$benchmark$", heap));
+            evaluator = new Evaluator(ValueFactoryFactory.getValueFactory(), System.in, System.err, System.out, root, heap);
+            evaluator.addRascalSearchPathContributor(StandardLibraryContributor.getInstance());
+            try {
+                evaluator.addRascalSearchPath(URIUtil.createFileLocation(getProjectRoot().resolve("src").toString()));
+            } catch (URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+            evaluator.doImport(null, "IO", "ParseTree", "util::Iguana");
+            for (Language language : Language.values()) {
+                evaluator.doImport(null, language.module);
+            }
+        }
+        return evaluator;
+    }
+}
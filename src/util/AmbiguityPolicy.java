@@ -0,0 +1,55 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IInteger;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+
+/**
+ * What the tree builder does with the ambiguities in the SPPF: keep all alternatives, fail on the first ambiguity,
+ * choose one alternative, or keep all alternatives of at most a number of ambiguities and fail after that.
+ */
+public class AmbiguityPolicy {
+
+    public enum Kind { KEEP, FAIL, CHOOSE, LIMIT }
+
+    public static final AmbiguityPolicy KEEP = new AmbiguityPolicy(Kind.KEEP, 0);
+    public static final AmbiguityPolicy FAIL = new AmbiguityPolicy(Kind.FAIL, 0);
+    public static final AmbiguityPolicy CHOOSE = new AmbiguityPolicy(Kind.CHOOSE, 0);
+
+    private final Kind kind;
+    private final int limit;
+
+    private AmbiguityPolicy(Kind kind, int limit) {
+        this.kind = kind;
+        this.limit = limit;
+    }
+
+    public static AmbiguityPolicy limit(int limit) {
+        return new AmbiguityPolicy(Kind.LIMIT, limit);
+    }
+
+    // From the AmbiguityPolicy data type in util::Iguana
+    public static AmbiguityPolicy fromConstructor(IConstructor policy) {
+        switch (policy.getName()) {
+            case "keepAmbiguities": return KEEP;
+            case "failOnAmbiguity": return FAIL;
+            case "chooseAlternative": return CHOOSE;
+            case "limitAmbiguities": return limit(((IInteger) policy.get("clusters")).intValue());
+            default: throw RuntimeExceptionFactory.illegalArgument(policy);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // The number of ambiguities that are kept, for LIMIT
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.LIMIT ? "limit" + limit : kind.name().toLowerCase();
+    }
+}
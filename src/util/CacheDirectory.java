@@ -0,0 +1,58 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The directories of the on-disk caches. The caches read back what they find in their directory, so a directory is
+ * only used if it belongs to the current user and no other user can write to it.
+ */
+public class CacheDirectory {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+    // ${user.home}/.cache/rascal-iguana/<name>, which is private to the user, unlike java.io.tmpdir
+    public static Path getDefault(String name) {
+        return Paths.get(System.getProperty("user.home"), ".cache", "rascal-iguana", name);
+    }
+
+    // Creates the directory with owner-only permissions if it does not exist. Returns false if the directory cannot
+    // be created, or if it is not private to the current user.
+    public static boolean createPrivate(Path directory) {
+        try {
+            boolean posix = Files.getFileStore(existingParent(directory)).supportsFileAttributeView(PosixFileAttributeView.class);
+            if (!Files.isDirectory(directory)) {
+                if (posix) {
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+                } else {
+                    Files.createDirectories(directory);
+                }
+            }
+            if (!Files.getOwner(directory).getName().equals(System.getProperty("user.name"))) {
+                return false;
+            }
+            if (posix) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+                return !permissions.contains(PosixFilePermission.GROUP_WRITE) && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static Path existingParent(Path directory) {
+        Path path = directory.toAbsolutePath();
+        while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+        }
+        return path;
+    }
+}
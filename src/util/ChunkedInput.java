@@ -0,0 +1,220 @@
+package util;
+
+import org.iguana.utils.input.Input;
+import org.iguana.utils.input.PositionInfo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * An input that stores its code points in fixed-size chunks, instead of in one array or string. A chunk with only
+ * Latin-1 characters, which is the common case for machine-generated files, takes one byte per character. Other
+ * chunks take one int per character. The input is decoded while reading, so it never exists as a single string.
+ * As Iguana's own inputs, the input ends with an EOF character, which is included in its length.
+ */
+public class ChunkedInput implements Input {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int EOF = -1;
+
+    // For each chunk, exactly one of these is set.
+    private final byte[][] latin1Chunks;
+    private final int[][] wideChunks;
+    // The number of characters, without EOF
+    private final int size;
+    private final URI uri;
+    private volatile LineColumnIndex lineColumnIndex;
+
+    private ChunkedInput(byte[][] latin1Chunks, int[][] wideChunks, int size, URI uri) {
+        this.latin1Chunks = latin1Chunks;
+        this.wideChunks = wideChunks;
+        this.size = size;
+        this.uri = uri;
+    }
+
+    public static ChunkedInput fromReader(Reader reader, URI uri) throws IOException {
+        Builder builder = new Builder();
+        char[] buffer = new char[CHUNK_SIZE];
+        int read;
+        int offset = 0;
+        while ((read = reader.read(buffer, offset, buffer.length - offset)) != -1) {
+            int end = offset + read;
+            int i = 0;
+            while (i < end) {
+                char c = buffer[i];
+                // A surrogate pair may be split over two reads, keep the high surrogate for the next read.
+                if (Character.isHighSurrogate(c) && i + 1 == end) {
+                    break;
+                }
+                int codePoint = Character.codePointAt(buffer, i, end);
+                builder.append(codePoint);
+                i += Character.charCount(codePoint);
+            }
+            offset = end - i;
+            if (offset > 0) {
+                buffer[0] = buffer[i];
+            }
+        }
+        if (offset > 0) {
+            // A dangling high surrogate at the end of the input
+            builder.append(buffer[0]);
+        }
+        return builder.build(uri);
+    }
+
+    @Override
+    public int charAt(int index) {
+        if (index == size) {
+            return EOF;
+        }
+        int chunk = index >>> CHUNK_BITS;
+        byte[] latin1 = latin1Chunks[chunk];
+        if (latin1 != null) {
+            return latin1[index & CHUNK_MASK] & 0xFF;
+        }
+        return wideChunks[chunk][index & CHUNK_MASK];
+    }
+
+    @Override
+    public int length() {
+        return size + 1;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public String subString(int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            builder.appendCodePoint(charAt(i));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean match(int start, int end, String target) {
+        return match(start, end, target.codePoints().toArray());
+    }
+
+    @Override
+    public boolean match(int start, int end, int[] target) {
+        return end - start == target.length && match(start, target);
+    }
+
+    @Override
+    public boolean match(int from, int[] target) {
+        if (from < 0 || from + target.length > size) {
+            return false;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (charAt(from + i) != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean matchBackward(int start, int[] target) {
+        return match(start - target.length, target);
+    }
+
+    // Lines start from 1, and as in Iguana, columns start from 1.
+    @Override
+    public int getLineNumber(int index) {
+        return getLineColumnIndex().getLine(index);
+    }
+
+    @Override
+    public int getColumnNumber(int index) {
+        return getLineColumnIndex().getColumn(index) + 1;
+    }
+
+    @Override
+    public PositionInfo getPositionInfo(int leftExtent, int rightExtent) {
+        return new PositionInfo(leftExtent, rightExtent - leftExtent, getLineNumber(leftExtent), getColumnNumber(leftExtent), getLineNumber(rightExtent), getColumnNumber(rightExtent));
+    }
+
+    @Override
+    public int getLineCount() {
+        return getLineNumber(size);
+    }
+
+    @Override
+    public boolean isStartOfLine(int index) {
+        return index == 0 || getColumnNumber(index) == 1;
+    }
+
+    @Override
+    public boolean isEndOfLine(int index) {
+        return index >= size || charAt(index) == '\n' || charAt(index) == '\r';
+    }
+
+    @Override
+    public boolean isEndOfFile(int index) {
+        return index >= size;
+    }
+
+    // The line index is computed on first use, and shared with the trees built from this input, see
+    // LineColumnIndex.of.
+    LineColumnIndex getLineColumnIndex() {
+        LineColumnIndex index = lineColumnIndex;
+        if (index == null) {
+            lineColumnIndex = index = new LineColumnIndex(this);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return subString(0, size);
+    }
+
+    private static class Builder {
+        private byte[][] latin1Chunks = new byte[16][];
+        private int[][] wideChunks = new int[16][];
+        private int chunkCount;
+        private int length;
+
+        void append(int codePoint) {
+            int chunk = length >>> CHUNK_BITS;
+            int index = length & CHUNK_MASK;
+            if (index == 0) {
+                if (chunk == latin1Chunks.length) {
+                    latin1Chunks = Arrays.copyOf(latin1Chunks, chunk * 2);
+                    wideChunks = Arrays.copyOf(wideChunks, chunk * 2);
+                }
+                latin1Chunks[chunk] = new byte[CHUNK_SIZE];
+                chunkCount++;
+            }
+            byte[] latin1 = latin1Chunks[chunk];
+            if (latin1 != null && codePoint > 0xFF) {
+                // The first character outside of Latin-1 widens the chunk.
+                int[] wide = new int[CHUNK_SIZE];
+                for (int i = 0; i < index; i++) {
+                    wide[i] = latin1[i] & 0xFF;
+                }
+                wideChunks[chunk] = wide;
+                latin1Chunks[chunk] = latin1 = null;
+            }
+            if (latin1 != null) {
+                latin1[index] = (byte) codePoint;
+            } else {
+                wideChunks[chunk][index] = codePoint;
+            }
+            length++;
+        }
+
+        ChunkedInput build(URI uri) {
+            // The last chunk is not trimmed; it is at most one chunk of slack.
+            return new ChunkedInput(Arrays.copyOf(latin1Chunks, Math.max(chunkCount, 1)), Arrays.copyOf(wideChunks, Math.max(chunkCount, 1)), length, uri);
+        }
+    }
+}
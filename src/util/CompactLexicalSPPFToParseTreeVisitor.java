@@ -0,0 +1,45 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.parsetrees.ITree;
+
+/**
+ * Converts the SPPF to a parse tree in which lexicals, e.g., identifiers and numbers, are compact trees that only
+ * store their production and extent. The character trees are built from the input when the lexical tree is used.
+ * Lexicals whose tree is not determined by their extent, see LexicalShape, are built as usual.
+ */
+public class CompactLexicalSPPFToParseTreeVisitor extends RascalSPPFToParseTreeVisitor {
+
+    private final boolean compactLexicals;
+
+    public CompactLexicalSPPFToParseTreeVisitor(RascalParseTreeBuilder parseTreeBuilder, Input input) {
+        this(parseTreeBuilder, input, true);
+    }
+
+    protected CompactLexicalSPPFToParseTreeVisitor(RascalParseTreeBuilder parseTreeBuilder, Input input, boolean compactLexicals) {
+        super(parseTreeBuilder, input);
+        this.compactLexicals = compactLexicals;
+    }
+
+    @Override
+    public ITree visit(NonterminalNode node) {
+        // An ambiguous lexical has more than one tree for its extent.
+        if (!node.isAmbiguous()) {
+            LexicalShape shape = getLexicalShape(LazySPPFToParseTreeVisitor.getProduction(node));
+            if (shape != null) {
+                return parseTreeBuilder.compactLexicalNode(shape, node.getLeftExtent(), node.getRightExtent());
+            }
+        }
+        return super.visit(node);
+    }
+
+    // The shape of a production whose trees are compact, or null
+    protected LexicalShape getLexicalShape(IConstructor prod) {
+        if (!compactLexicals || prod == null) {
+            return null;
+        }
+        return parseTreeBuilder.getLexicalShape(prod);
+    }
+}
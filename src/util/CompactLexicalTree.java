@@ -0,0 +1,56 @@
+package util;
+
+import io.usethesource.vallang.ISourceLocation;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+/**
+ * A lexical tree that only stores its shape and extent. Its character trees are built from the input when the tree
+ * is used, see LexicalShape.
+ */
+public class CompactLexicalTree extends LazyTree {
+
+    // What the compact trees of an input share, so a tree only stores its own extent. It does not refer to the
+    // builder, so the builder and its caches are not kept alive by the trees.
+    static class Context {
+        private final IRascalValueFactory vf;
+        private final TreeCache treeCache;
+        private final Input input;
+        private final ISourceLocation src;
+        private final int offset;
+        private final LineColumnIndex lineColumnIndex;
+
+        Context(IRascalValueFactory vf, TreeCache treeCache, Input input, ISourceLocation src, int offset, LineColumnIndex lineColumnIndex) {
+            this.vf = vf;
+            this.treeCache = treeCache;
+            this.input = input;
+            this.src = src;
+            this.offset = offset;
+            this.lineColumnIndex = lineColumnIndex;
+        }
+    }
+
+    private final LexicalShape shape;
+    private final Context context;
+    private final int leftExtent;
+    private final int rightExtent;
+
+    CompactLexicalTree(LexicalShape shape, Context context, int leftExtent, int rightExtent) {
+        super(shape.getProduction());
+        this.shape = shape;
+        this.context = context;
+        this.leftExtent = leftExtent;
+        this.rightExtent = rightExtent;
+    }
+
+    @Override
+    protected ITree build() {
+        return shape.build(context.vf, context.treeCache, context.input, context.src, context.offset, context.lineColumnIndex, leftExtent, rightExtent);
+    }
+
+    @Override
+    protected ISourceLocation getLocation() {
+        return context.lineColumnIndex.getSourceLocation(context.vf, context.src, context.offset + leftExtent, context.offset + rightExtent);
+    }
+}
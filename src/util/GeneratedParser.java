@@ -0,0 +1,222 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.iguana.grammar.Grammar;
+import org.iguana.grammar.symbol.Start;
+import org.iguana.grammar.symbol.Symbol;
+import org.iguana.parser.IguanaParser;
+import org.iguana.parser.IguanaRecognizer;
+import org.iguana.parser.ParseError;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.util.ParseStatistics;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.util.Map;
+
+/**
+ * A parser generated from a Rascal grammar. The converted Iguana grammar is immutable and shared by all callers,
+ * while the parse state lives in an IguanaParser that is taken from a pool for each call, so parse can be called
+ * concurrently.
+ */
+public class GeneratedParser {
+
+    private static final Input EMPTY = Input.fromString("");
+
+    private final IRascalValueFactory vf;
+    private final Grammar grammar;
+    // IguanaParser keeps the GSS and SPPF of the last parse, so it is used by one call at a time.
+    private final ParserPool<IguanaParser> parsers;
+    private final ParserPool<IguanaRecognizer> recognizers;
+    private final ParserStatistics statistics = new ParserStatistics();
+    // The character and literal trees are shared by all trees of this parser.
+    private final TreeCache treeCache;
+
+    public GeneratedParser(IRascalValueFactory vf, Grammar grammar) {
+        this.vf = vf;
+        this.grammar = grammar;
+        this.treeCache = new TreeCache(vf);
+        this.parsers = new ParserPool<>(() -> new IguanaParser(grammar));
+        this.recognizers = new ParserPool<>(() -> new IguanaRecognizer(grammar));
+    }
+
+    public Grammar getGrammar() {
+        return grammar;
+    }
+
+    public ParserStatistics getStatistics() {
+        return statistics;
+    }
+
+    public ITree parse(IConstructor symbol, Input input, ISourceLocation src) {
+        return parse(symbol, input, src, ParseOptions.DEFAULT);
+    }
+
+    public ITree parse(IConstructor symbol, Input input, ISourceLocation src, ParseOptions options) {
+        return parse(symbol, input, src, new RascalParseTreeBuilder(vf, input, src, treeCache), options, new ParserStatistics.Call());
+    }
+
+    // The input is a str, or a loc to read the input from. Creating the input is measured as a separate phase.
+    public ITree parse(IConstructor symbol, IValue input, ISourceLocation src, ParseOptions options) {
+        ParserStatistics.Call call = new ParserStatistics.Call();
+        Input in = InputUtils.toInput(input);
+        call.inputNanos = call.endPhase();
+        return parse(symbol, in, src, new RascalParseTreeBuilder(vf, in, src, treeCache), options, call);
+    }
+
+    // Parses a region of a larger input, which starts at offset in the larger input, e.g., to reparse part of a tree.
+    public ITree parseRegion(IConstructor symbol, Input region, ISourceLocation src, int offset, LineColumnIndex lineColumnIndex, ParseOptions options) {
+        return parse(symbol, region, src, new RascalParseTreeBuilder(vf, region, src, offset, lineColumnIndex, treeCache), options, new ParserStatistics.Call());
+    }
+
+    private ITree parse(IConstructor symbol, Input input, ISourceLocation src, RascalParseTreeBuilder parseTreeBuilder, ParseOptions options, ParserStatistics.Call call) {
+        Symbol start = getStartSymbol(symbol);
+        IguanaParser parser = parsers.take();
+        ParseLimits limits = options.getLimits();
+        ParseLimits.Guard guard = limits.start(vf, src);
+        boolean failed = true;
+        boolean parsed = false;
+        try {
+            parser.parse(limits.isNone() ? input : new GuardedInput(input, guard), start);
+            parsed = true;
+            call.parseNanos = call.endPhase();
+            call.iguanaStatistics = parser.getStatistics();
+            NonterminalNode sppf = parser.getSPPF();
+            if (sppf == null) {
+                throw RuntimeExceptionFactory.parseError(getErrorLocation(parser.getParseError(), input, src));
+            }
+
+            // The descriptors and SPPF nodes are only counted by Iguana, so they are checked after the parse, before
+            // a tree of a similar size is built.
+            ParseStatistics iguanaStatistics = call.iguanaStatistics;
+            if (iguanaStatistics != null) {
+                guard.checkNodes(iguanaStatistics.getDescriptorsCount(), -1);
+                guard.checkNodes(iguanaStatistics.getNonterminalNodesCount() + iguanaStatistics.getIntermediateNodesCount()
+                    + iguanaStatistics.getTerminalNodesCount() + iguanaStatistics.getPackedNodesCount(), -1);
+            }
+
+            parseTreeBuilder.setAmbiguityPolicy(options.getAmbiguityPolicy());
+            parseTreeBuilder.setGuard(limits.isNone() ? null : guard);
+            RascalSPPFToParseTreeVisitor visitor;
+            if (options.isLazy() && !failsLazily(options.getAmbiguityPolicy(), iguanaStatistics)) {
+                visitor = new LazySPPFToParseTreeVisitor(parseTreeBuilder, input, options.isCompactLexicals());
+            } else if (options.isCompactLexicals()) {
+                visitor = new CompactLexicalSPPFToParseTreeVisitor(parseTreeBuilder, input);
+            } else {
+                visitor = new RascalSPPFToParseTreeVisitor(parseTreeBuilder, input);
+            }
+            ITree tree = sppf.accept(visitor);
+            call.treeNanos = call.endPhase();
+            call.treeNodes = parseTreeBuilder.getNodeCount();
+            failed = false;
+            return tree;
+        } finally {
+            guard.close();
+            release(parser, start, parsed);
+            statistics.record(call, failed);
+        }
+    }
+
+    // A lazy tree would throw the Ambiguity of failOnAmbiguity or limitAmbiguities when the ambiguous part is built,
+    // e.g., from toString or ==, instead of from the parse. So if Iguana found ambiguities, the tree is built
+    // eagerly and the policy throws while it is built, as without lazy.
+    private static boolean failsLazily(AmbiguityPolicy policy, ParseStatistics iguanaStatistics) {
+        switch (policy.getKind()) {
+            case FAIL:
+            case LIMIT:
+                return iguanaStatistics == null || iguanaStatistics.getAmbiguousNodesCount() > 0;
+            default:
+                return false;
+        }
+    }
+
+    // Parses the input without building a tree, and counts the SPPF nodes per Rascal production.
+    public Map<IConstructor, ProductionProfiler.Counts> profile(IConstructor symbol, Input input, ISourceLocation src) {
+        Symbol start = getStartSymbol(symbol);
+        IguanaParser parser = parsers.take();
+        ParserStatistics.Call call = new ParserStatistics.Call();
+        boolean failed = true;
+        boolean parsed = false;
+        try {
+            parser.parse(input, start);
+            parsed = true;
+            call.parseNanos = call.endPhase();
+            call.iguanaStatistics = parser.getStatistics();
+            NonterminalNode sppf = parser.getSPPF();
+            if (sppf == null) {
+                throw RuntimeExceptionFactory.parseError(getErrorLocation(parser.getParseError(), input, src));
+            }
+            failed = false;
+            return ProductionProfiler.profile(sppf);
+        } finally {
+            release(parser, start, parsed);
+            statistics.record(call, failed);
+        }
+    }
+
+    // Returns the location of the parse error, or null if the input is in the language. No SPPF or tree is built.
+    public ISourceLocation recognize(IConstructor symbol, Input input, ISourceLocation src) {
+        Symbol start = getStartSymbol(symbol);
+        IguanaRecognizer recognizer = recognizers.take();
+        boolean recognized = false;
+        try {
+            boolean success = recognizer.recognize(input, start);
+            recognized = true;
+            return success ? null : getErrorLocation(recognizer.getParseError(), input, src);
+        } finally {
+            // See release
+            if (recognized && reset(() -> recognizer.recognize(EMPTY, start))) {
+                recognizers.release(recognizer);
+            }
+        }
+    }
+
+    // Iguana has no method to clear the GSS and SPPF of the last call, so they are replaced by the ones of an empty
+    // input, which only creates the descriptor of the start symbol. A parser whose parse did not complete, e.g.,
+    // because it was interrupted by a limit, is in an unknown state, so it is dropped instead, and a later call creates
+    // a new one. The trees, including lazy ones, do not refer to the parser, only to SPPF nodes.
+    private void release(IguanaParser parser, Symbol start, boolean parsed) {
+        if (parsed && reset(() -> parser.parse(EMPTY, start))) {
+            parsers.release(parser);
+        }
+    }
+
+    // Runs in a finally block, so its failure neither replaces the exception nor fails the result of the call; the
+    // parser is dropped then.
+    private static boolean reset(Runnable reset) {
+        try {
+            reset.run();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private ISourceLocation getErrorLocation(ParseError error, Input input, ISourceLocation src) {
+        int offset = error == null ? 0 : Math.min(error.getInputIndex(), input.length());
+        int length = offset < input.length() ? 1 : 0;
+        int line = input.getLineNumber(offset);
+        // Iguana columns start from 1, Rascal columns from 0.
+        int column = input.getColumnNumber(offset) - 1;
+        return vf.sourceLocation(src, offset, length, line, line, column, column + length);
+    }
+
+    public static Symbol getStartSymbol(IConstructor symbol) {
+        Symbol start;
+        try {
+            start = (Symbol) symbol.accept(new RascalGrammarToIguanaGrammarConverter.ValueVisitor());
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        // This is a hack for now, we need to change the Iguana symbol hierarchy to allow start accept a
+        // symbol instead of string to make this unified.
+        if (symbol.getName().equals("start")) {
+            start = Start.from(start.getName());
+        }
+        return start;
+    }
+}
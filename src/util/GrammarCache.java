@@ -0,0 +1,270 @@
+package util;
+
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IValueFactory;
+import io.usethesource.vallang.io.binary.stream.IValueInputStream;
+import io.usethesource.vallang.io.binary.stream.IValueOutputStream;
+import io.usethesource.vallang.type.TypeStore;
+import org.iguana.grammar.Grammar;
+import org.rascalmpl.values.RascalValueFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An on-disk cache of converted Iguana grammars, keyed by a hash of the reified Rascal grammar and the versions of
+ * Iguana and this library.
+ *
+ * The converted grammar refers to Rascal values, e.g., the "prod" and "definition" attributes, which are not
+ * Java-serializable. These values are stored once in a table using vallang's binary format, and the Java-serialized
+ * grammar refers to them by their index in this table. Only the classes of Iguana grammars are deserialized.
+ */
+public class GrammarCache {
+
+    private static final String EXTENSION = ".grammar";
+    private static final String VERSION = version(Grammar.class) + "/" + version(GrammarCache.class);
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(String.join(";",
+        "maxdepth=10000",
+        "org.iguana.**",
+        "util.GrammarCache$ValueReference",
+        "java.lang.String", "java.lang.Number", "java.lang.Integer", "java.lang.Long", "java.lang.Boolean",
+        "java.lang.Character", "java.lang.Enum",
+        "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.HashSet",
+        "java.util.LinkedHashSet", "java.util.TreeMap", "java.util.TreeSet", "java.util.Arrays$ArrayList",
+        "java.util.Collections$*", "java.util.ImmutableCollections$*", "java.util.CollSer",
+        "!*"));
+
+    private final IValueFactory vf;
+    private final Path directory;
+
+    public GrammarCache(IValueFactory vf, Path directory) {
+        this.vf = vf;
+        this.directory = directory;
+    }
+
+    // The cache is enabled with -Drascal.iguana.grammarCache=true, and its directory can be set with
+    // -Drascal.iguana.cacheDir. The directory must be private to the user, otherwise the cache is not used.
+    public static GrammarCache fromSystemProperties(IValueFactory vf) {
+        if (!Boolean.getBoolean("rascal.iguana.grammarCache")) {
+            return new GrammarCache(vf, null);
+        }
+        String dir = System.getProperty("rascal.iguana.cacheDir");
+        Path directory = dir == null || dir.isEmpty() ? CacheDirectory.getDefault("grammars") : Paths.get(dir);
+        return new GrammarCache(vf, CacheDirectory.createPrivate(directory) ? directory : null);
+    }
+
+    public Grammar get(IValue grammar, Function<IValue, Grammar> converter) {
+        return get(grammar, "", converter);
+    }
+
+    // Grammars converted with different options are different variants of the same Rascal grammar.
+    public Grammar get(IValue grammar, String variant, Function<IValue, Grammar> converter) {
+        if (directory == null) {
+            return converter.apply(grammar);
+        }
+
+        Path file = directory.resolve(hash(vf, grammar) + "-" + hash(VERSION) + (variant.isEmpty() ? "" : "-" + variant) + EXTENSION);
+        if (Files.exists(file)) {
+            try {
+                return read(file);
+            } catch (IOException | ClassNotFoundException e) {
+                // The file is corrupt or contains classes that are not allowed, it is overwritten below.
+            }
+        }
+
+        Grammar result = converter.apply(grammar);
+        // A grammar that cannot be serialized is a bug in the converter, e.g., an attribute that is not serializable,
+        // so it is not hidden like the I/O errors of the cache.
+        byte[] bytes = serialize(result);
+        try {
+            write(bytes, file);
+        } catch (IOException e) {
+            // Caching is best effort, e.g., the directory may not be writable.
+        }
+        return result;
+    }
+
+    // A content hash of the value, which is stable across runs, unlike hashCode.
+    public static String hash(IValueFactory vf, IValue value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try (IValueOutputStream out = new IValueOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest), vf, IValueOutputStream.CompressionRate.None)) {
+            out.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                result.append(String.format("%02x", digest[i]));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The implementation version of the jar of the class, or for a class that is not in a released jar, e.g., during
+    // development, the modification time of its class file or jar.
+    private static String version(Class<?> c) {
+        String version = c.getPackage() == null ? null : c.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        try {
+            URL location = c.getResource(c.getSimpleName() + ".class");
+            URLConnection connection = location == null ? null : location.openConnection();
+            return connection == null ? "unknown" : String.valueOf(connection.getLastModified());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private Grammar read(Path file) throws IOException, ClassNotFoundException {
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!in.readUTF().equals(VERSION)) {
+                throw new IOException("Unsupported grammar cache version in " + file);
+            }
+            int tableSize = in.readInt();
+            if (tableSize < 0 || tableSize > size) {
+                throw new IOException("Corrupt grammar cache file " + file);
+            }
+            byte[] table = new byte[tableSize];
+            in.readFully(table);
+
+            IList values;
+            try (IValueInputStream valueIn = new IValueInputStream(new ByteArrayInputStream(table), vf, () -> new TypeStore(RascalValueFactory.getStore()))) {
+                values = (IList) valueIn.read();
+            }
+
+            try (GrammarInputStream grammarIn = new GrammarInputStream(in, values)) {
+                return (Grammar) grammarIn.readObject();
+            }
+        }
+    }
+
+    // The contents of a cache file, written to memory, where I/O errors cannot happen.
+    private byte[] serialize(Grammar grammar) {
+        try {
+            ByteArrayOutputStream grammarBytes = new ByteArrayOutputStream();
+            List<IValue> values;
+            try (GrammarOutputStream grammarOut = new GrammarOutputStream(grammarBytes)) {
+                grammarOut.writeObject(grammar);
+                values = grammarOut.values;
+            }
+
+            ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+            IListWriter table = vf.listWriter();
+            table.appendAll(values);
+            try (IValueOutputStream valueOut = new IValueOutputStream(tableBytes, vf, IValueOutputStream.CompressionRate.Normal)) {
+                valueOut.write(table.done());
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(VERSION);
+                out.writeInt(tableBytes.size());
+                tableBytes.writeTo(out);
+                grammarBytes.writeTo(out);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("The converted grammar cannot be serialized", e);
+        }
+    }
+
+    private void write(byte[] bytes, Path file) throws IOException {
+        // Write to a temporary file first, so concurrent readers never see a partially written grammar. Temporary
+        // files are only readable by the owner.
+        Path tmp = Files.createTempFile(directory, "grammar", ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static class ValueReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+
+        ValueReference(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class GrammarOutputStream extends ObjectOutputStream {
+        private final List<IValue> values = new ArrayList<>();
+        private final Map<IValue, Integer> indices = new HashMap<>();
+
+        GrammarOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof IValue) {
+                return new ValueReference(indices.computeIfAbsent((IValue) obj, value -> {
+                    values.add(value);
+                    return values.size() - 1;
+                }));
+            }
+            return obj;
+        }
+    }
+
+    private static class GrammarInputStream extends ObjectInputStream {
+        private final IList values;
+
+        GrammarInputStream(InputStream in, IList values) throws IOException {
+            super(in);
+            this.values = values;
+            setObjectInputFilter(FILTER);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ValueReference) {
+                int index = ((ValueReference) obj).index;
+                if (index < 0 || index >= values.length()) {
+                    throw new InvalidObjectException("Unknown value " + index);
+                }
+                return values.get(index);
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package util;
+
+import org.iguana.utils.input.Input;
+import org.iguana.utils.input.PositionInfo;
+
+import java.net.URI;
+
+/**
+ * An input that checks the limits of a parse while the parser reads it. Iguana has no hook in its parse loop, but the
+ * parser reads the input for almost every descriptor it processes, so the reads are a measure of its progress.
+ */
+public class GuardedInput implements Input {
+
+    // The limits are checked once per this many reads.
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final Input input;
+    private final ParseLimits.Guard guard;
+    private int reads;
+
+    public GuardedInput(Input input, ParseLimits.Guard guard) {
+        this.input = input;
+        this.guard = guard;
+    }
+
+    @Override
+    public int charAt(int index) {
+        if (++reads == CHECK_INTERVAL) {
+            reads = 0;
+            guard.check(index);
+        }
+        return input.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return input.length();
+    }
+
+    @Override
+    public URI getURI() {
+        return input.getURI();
+    }
+
+    @Override
+    public String subString(int start, int end) {
+        return input.subString(start, end);
+    }
+
+    @Override
+    public boolean match(int start, int end, String target) {
+        return input.match(start, end, target);
+    }
+
+    @Override
+    public boolean match(int start, int end, int[] target) {
+        return input.match(start, end, target);
+    }
+
+    @Override
+    public boolean match(int from, int[] target) {
+        return input.match(from, target);
+    }
+
+    @Override
+    public boolean matchBackward(int start, int[] target) {
+        return input.matchBackward(start, target);
+    }
+
+    @Override
+    public int getLineNumber(int index) {
+        return input.getLineNumber(index);
+    }
+
+    @Override
+    public int getColumnNumber(int index) {
+        return input.getColumnNumber(index);
+    }
+
+    @Override
+    public PositionInfo getPositionInfo(int leftExtent, int rightExtent) {
+        return input.getPositionInfo(leftExtent, rightExtent);
+    }
+
+    @Override
+    public int getLineCount() {
+        return input.getLineCount();
+    }
+
+    @Override
+    public boolean isStartOfLine(int index) {
+        return input.isStartOfLine(index);
+    }
+
+    @Override
+    public boolean isEndOfLine(int index) {
+        return input.isEndOfLine(index);
+    }
+
+    @Override
+    public boolean isEndOfFile(int index) {
+        return input.isEndOfFile(index);
+    }
+
+    @Override
+    public String toString() {
+        return input.toString();
+    }
+}
@@ -0,0 +1,232 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+import org.rascalmpl.exceptions.Throw;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reparses a tree after a text edit. Instead of parsing the whole new input, the smallest context-free subtree that
+ * encloses the edit is reparsed, and spliced into the previous tree. The source locations of the trees after the edit
+ * are shifted. If the subtree cannot be reparsed on its own, enclosing subtrees are tried, up to a full parse. A
+ * previous tree without source locations, e.g., one built in Rascal, is parsed again in full.
+ */
+public class IncrementalReparser {
+
+    private final IRascalValueFactory vf;
+    private final GeneratedParser parser;
+    private final ParseOptions options;
+
+    public IncrementalReparser(IRascalValueFactory vf, GeneratedParser parser) {
+        this(vf, parser, ParseOptions.DEFAULT);
+    }
+
+    // The options of the parser, for the reparsed subtrees and full parses
+    public IncrementalReparser(IRascalValueFactory vf, GeneratedParser parser, ParseOptions options) {
+        this.vf = vf;
+        this.parser = parser;
+        this.options = options;
+    }
+
+    public ITree reparse(IConstructor symbol, ITree previous, int offset, int deleted, String inserted) {
+        int[] oldText = TreeAdapter.yield(previous).codePoints().toArray();
+        if (offset < 0 || deleted < 0 || offset + deleted > oldText.length) {
+            throw RuntimeExceptionFactory.illegalArgument(vf.integer(offset), "The edit is outside of the input");
+        }
+        int[] insertedText = inserted.codePoints().toArray();
+        int[] newText = new int[oldText.length - deleted + insertedText.length];
+        System.arraycopy(oldText, 0, newText, 0, offset);
+        System.arraycopy(insertedText, 0, newText, offset, insertedText.length);
+        System.arraycopy(oldText, offset + deleted, newText, offset + insertedText.length, oldText.length - offset - deleted);
+
+        ISourceLocation location = TreeAdapter.getLocation(previous);
+        ISourceLocation src = location == null ? URIUtil.rootLocation("unknown") : location.top();
+        Input input = Input.fromIntArray(newText, src.getURI());
+        if (location == null) {
+            return parser.parse(symbol, input, src, options);
+        }
+        Edit edit = new Edit(offset, deleted, insertedText.length, LineColumnIndex.of(input));
+
+        List<ITree> path = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        findEnclosingTrees(previous, edit, path, indices);
+
+        // The root is never reparsed on its own, that is just a full parse.
+        for (int i = path.size() - 1; i > 0; i--) {
+            ITree tree = path.get(i);
+            ITree parent = path.get(i - 1);
+            if (!canReparse(tree, parent, indices.get(i))) {
+                continue;
+            }
+            ISourceLocation treeLocation = TreeAdapter.getLocation(tree);
+            int start = treeLocation.getOffset();
+            int end = start + treeLocation.getLength() + edit.delta();
+            IConstructor sort = unlabel(TreeAdapter.getType(tree));
+            Input region = Input.fromIntArray(Arrays.copyOfRange(newText, start, end), src.getURI());
+            try {
+                ITree replacement = parser.parseRegion(sort, region, src, start, edit.lineColumnIndex, options);
+                return splice(path, indices, i, replacement, edit);
+            } catch (Throw e) {
+                // The edit does not fit in this subtree on its own, try the enclosing one.
+            }
+        }
+
+        return parser.parse(symbol, input, src, options);
+    }
+
+    // Collects the trees with a source location that strictly enclose the edit, from the root down, and the index of
+    // each of them in the arguments of its parent. If the edit touches the border of a tree, the characters around it
+    // can change how the tree is parsed, so such trees are not included.
+    private static void findEnclosingTrees(ITree tree, Edit edit, List<ITree> path, List<Integer> indices) {
+        path.add(tree);
+        indices.add(-1);
+        while (TreeAdapter.isAppl(tree)) {
+            IList args = TreeAdapter.getArgs(tree);
+            ITree next = null;
+            for (int i = 0; i < args.length(); i++) {
+                ITree arg = (ITree) args.get(i);
+                ISourceLocation location = TreeAdapter.getLocation(arg);
+                if (location != null && location.getOffset() < edit.offset && edit.offset + edit.deleted < location.getOffset() + location.getLength()) {
+                    next = arg;
+                    path.add(arg);
+                    indices.add(i);
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            tree = next;
+        }
+    }
+
+    // A tree can be reparsed on its own if it is a context-free nonterminal, and its parent expects exactly this
+    // nonterminal at its position. Restrictions such as follow restrictions or excepts on the symbol in the parent,
+    // and priorities between the tree and a parent of the same nonterminal, cannot be checked on the tree alone.
+    private static boolean canReparse(ITree tree, ITree parent, int index) {
+        if (!TreeAdapter.isAppl(tree) || !TreeAdapter.isAppl(parent)) {
+            return false;
+        }
+        IConstructor prod = TreeAdapter.getProduction(tree);
+        if (!prod.getName().equals("prod")) {
+            return false;
+        }
+        IConstructor sort = unlabel((IConstructor) prod.get("def"));
+        if (!sort.getName().equals("sort") && !sort.getName().equals("parameterized-sort")) {
+            return false;
+        }
+
+        IConstructor parentProd = TreeAdapter.getProduction(parent);
+        if (parentProd.getName().equals("prod")) {
+            if (unlabel((IConstructor) parentProd.get("def")).equals(sort)) {
+                return false;
+            }
+            IList symbols = (IList) parentProd.get("symbols");
+            return unlabel((IConstructor) symbols.get(index)).equals(sort);
+        }
+        if (parentProd.getName().equals("regular")) {
+            IConstructor regular = (IConstructor) parentProd.get("def");
+            switch (regular.getName()) {
+                case "iter":
+                case "iter-star":
+                case "opt":
+                    return unlabel((IConstructor) regular.get("symbol")).equals(sort);
+                case "iter-seps":
+                case "iter-star-seps":
+                    // The elements are interleaved with the separators.
+                    int separators = ((IList) regular.get("separators")).length();
+                    return index % (separators + 1) == 0 && unlabel((IConstructor) regular.get("symbol")).equals(sort);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static IConstructor unlabel(IConstructor symbol) {
+        while (symbol.getName().equals("label")) {
+            symbol = (IConstructor) symbol.get("symbol");
+        }
+        return symbol;
+    }
+
+    // Replaces the tree at path[index] with replacement, and rebuilds its ancestors with the new source locations.
+    private ITree splice(List<ITree> path, List<Integer> indices, int index, ITree replacement, Edit edit) {
+        ITree result = replacement;
+        for (int i = index - 1; i >= 0; i--) {
+            ITree parent = path.get(i);
+            int replaced = indices.get(i + 1);
+            IList args = TreeAdapter.getArgs(parent);
+            IListWriter newArgs = vf.listWriter();
+            for (int j = 0; j < args.length(); j++) {
+                newArgs.append(j == replaced ? result : shift((ITree) args.get(j), edit));
+            }
+            ISourceLocation location = TreeAdapter.getLocation(parent);
+            result = appl(parent, newArgs.done(), edit.relocate(location.getOffset(), location.getLength() + edit.delta(), location));
+        }
+        return result;
+    }
+
+    // Shifts the source locations of a tree that does not enclose the edit. Trees before the edit stay the same.
+    private ITree shift(ITree tree, Edit edit) {
+        ISourceLocation location = TreeAdapter.getLocation(tree);
+        if (TreeAdapter.isAmb(tree)) {
+            ISetWriter alternatives = vf.setWriter();
+            for (IValue alternative : TreeAdapter.getAlternatives(tree)) {
+                alternatives.insert(shift((ITree) alternative, edit));
+            }
+            return vf.amb(alternatives.done());
+        }
+        // Characters and literals have no source location, and neither have their children.
+        if (!TreeAdapter.isAppl(tree) || location == null || location.getOffset() < edit.offset) {
+            return tree;
+        }
+        IList args = TreeAdapter.getArgs(tree);
+        IListWriter newArgs = vf.listWriter();
+        for (IValue arg : args) {
+            newArgs.append(shift((ITree) arg, edit));
+        }
+        return appl(tree, newArgs.done(), edit.relocate(location.getOffset() + edit.delta(), location.getLength(), location));
+    }
+
+    private ITree appl(ITree tree, IList args, ISourceLocation location) {
+        return (ITree) vf.appl(TreeAdapter.getProduction(tree), args)
+            .asWithKeywordParameters()
+            .setParameter("src", location);
+    }
+
+    private class Edit {
+        private final int offset;
+        private final int deleted;
+        private final int inserted;
+        private final LineColumnIndex lineColumnIndex;
+
+        Edit(int offset, int deleted, int inserted, LineColumnIndex lineColumnIndex) {
+            this.offset = offset;
+            this.deleted = deleted;
+            this.inserted = inserted;
+            this.lineColumnIndex = lineColumnIndex;
+        }
+
+        int delta() {
+            return inserted - deleted;
+        }
+
+        ISourceLocation relocate(int newOffset, int newLength, ISourceLocation location) {
+            return lineColumnIndex.getSourceLocation(vf, location.top(), newOffset, newOffset + newLength);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package util;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IString;
+import io.usethesource.vallang.IValue;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+import org.rascalmpl.uri.URIResolverRegistry;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class InputUtils {
+
+    // The input of a parser is either a string, or a location that is read directly.
+    public static Input toInput(IValue value) {
+        if (value instanceof IString) {
+            return Input.fromString(((IString) value).getValue());
+        }
+        if (value instanceof ISourceLocation) {
+            ISourceLocation location = (ISourceLocation) value;
+            try {
+                return fromLocation(location);
+            } catch (IOException e) {
+                throw RuntimeExceptionFactory.io(e.getMessage());
+            }
+        }
+        throw RuntimeExceptionFactory.illegalArgument(value);
+    }
+
+    // Decodes the characters of the location straight into chunks of code points, without materializing the contents
+    // as a Java string or as one large array first.
+    public static Input fromLocation(ISourceLocation location) throws IOException {
+        try (Reader reader = URIResolverRegistry.getInstance().getCharacterReader(location)) {
+            return ChunkedInput.fromReader(reader, location.getURI());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import org.iguana.grammar.runtime.RuntimeRule;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.sppf.PackedNode;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import static util.IValueUtils.isLiteral;
+
+/**
+ * Converts the SPPF to a parse tree in which the trees of Rascal productions are built on first use. Building such a
+ * tree builds one level of the tree, its children are again lazy trees. The SPPF is kept alive as long as there are
+ * lazy trees that are not built yet.
+ */
+public class LazySPPFToParseTreeVisitor extends CompactLexicalSPPFToParseTreeVisitor {
+
+    public LazySPPFToParseTreeVisitor(RascalParseTreeBuilder parseTreeBuilder, Input input) {
+        this(parseTreeBuilder, input, false);
+    }
+
+    // Lexicals are compact trees instead of lazy trees if compactLexicals is set.
+    public LazySPPFToParseTreeVisitor(RascalParseTreeBuilder parseTreeBuilder, Input input, boolean compactLexicals) {
+        super(parseTreeBuilder, input, compactLexicals);
+    }
+
+    @Override
+    public ITree visit(NonterminalNode node) {
+        // Ambiguities, and nonterminals without a Rascal production, e.g., the ones that Iguana introduces for
+        // regular expressions, are flattened into their parent by the default visitor, so they are built eagerly.
+        if (node.isAmbiguous()) {
+            return super.visit(node);
+        }
+        IConstructor prod = getProduction(node);
+        if (prod == null || isLiteral(prod.get("def")) || getLexicalShape(prod) != null) {
+            return super.visit(node);
+        }
+        return new SPPFTree(prod, node);
+    }
+
+    static IConstructor getProduction(NonterminalNode node) {
+        RuntimeRule rule = ((PackedNode) node.getChildAt(0)).getGrammarSlot().getRule();
+        return (IConstructor) rule.getAttributes().get("prod");
+    }
+
+    // A tree that is built from its SPPF node. The node is dropped when the tree is built.
+    private class SPPFTree extends LazyTree {
+
+        private NonterminalNode node;
+        private final int leftExtent;
+        private final int rightExtent;
+
+        SPPFTree(IConstructor prod, NonterminalNode node) {
+            super(prod);
+            this.node = node;
+            this.leftExtent = node.getLeftExtent();
+            this.rightExtent = node.getRightExtent();
+        }
+
+        @Override
+        protected ITree build() {
+            // The builder and the visitor keep state, so lazy trees are built one at a time.
+            synchronized (LazySPPFToParseTreeVisitor.this) {
+                ITree tree = LazySPPFToParseTreeVisitor.super.visit(node);
+                node = null;
+                return tree;
+            }
+        }
+
+        @Override
+        protected ISourceLocation getLocation() {
+            return parseTreeBuilder.getLocation(leftExtent, rightExtent);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.INode;
+import io.usethesource.vallang.ISet;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.IWithKeywordParameters;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.visitors.IValueVisitor;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+import org.rascalmpl.values.parsetrees.visitors.TreeVisitor;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An appl tree whose arguments are built on first use. The type, the production and the source location are known
+ * without building the tree, so a parent can be built from lazy trees without building them, e.g., when the list of
+ * arguments computes the type of its elements. Anything else builds the tree once, and is answered by the built tree.
+ *
+ * A lazy tree is equal to the tree it builds, but the concrete trees of Rascal only equal trees of their own class, so
+ * a concrete tree is never equal to a tree that contains lazy trees, e.g., with Rascal's == or in a set of concrete
+ * trees. equal compares trees with lazy trees on either side, and materialize builds a concrete tree from a tree with
+ * lazy trees, to compare it with or look it up among concrete trees.
+ */
+public abstract class LazyTree implements ITree {
+
+    private final IConstructor production;
+    private volatile ITree tree;
+
+    protected LazyTree(IConstructor production) {
+        this.production = production;
+    }
+
+    // Builds the tree, at most once. The implementation can drop what it needed to build the tree afterwards.
+    protected abstract ITree build();
+
+    // The source location of the tree, which is the same as the src of the built tree
+    protected abstract ISourceLocation getLocation();
+
+    public boolean isBuilt() {
+        return tree != null;
+    }
+
+    public ITree get() {
+        ITree result = tree;
+        if (result == null) {
+            synchronized (this) {
+                result = tree;
+                if (result == null) {
+                    result = tree = build();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static IValue unwrap(IValue value) {
+        return value instanceof LazyTree ? ((LazyTree) value).get() : value;
+    }
+
+    // Whether two values are equal, for lazy trees on either side and at any depth of the trees
+    public static boolean equal(IValue left, IValue right) {
+        left = unwrap(left);
+        right = unwrap(right);
+        if (left == right) {
+            return true;
+        }
+        if (!(left instanceof ITree) || !(right instanceof ITree)) {
+            return left.equals(right);
+        }
+        ITree l = (ITree) left;
+        ITree r = (ITree) right;
+        if (l.isAppl() && r.isAppl()) {
+            if (!l.getProduction().equals(r.getProduction())) {
+                return false;
+            }
+            IList leftArgs = TreeAdapter.getArgs(l);
+            IList rightArgs = TreeAdapter.getArgs(r);
+            if (leftArgs.length() != rightArgs.length()) {
+                return false;
+            }
+            for (int i = 0; i < leftArgs.length(); i++) {
+                if (!equal(leftArgs.get(i), rightArgs.get(i))) {
+                    return false;
+                }
+            }
+            return l.asWithKeywordParameters().getParameters().equals(r.asWithKeywordParameters().getParameters());
+        }
+        if (l.isAmb() && r.isAmb()) {
+            ISet leftAlternatives = TreeAdapter.getAlternatives(l);
+            ISet rightAlternatives = TreeAdapter.getAlternatives(r);
+            if (leftAlternatives.size() != rightAlternatives.size()) {
+                return false;
+            }
+            for (IValue alternative : leftAlternatives) {
+                boolean found = false;
+                for (IValue other : rightAlternatives) {
+                    if (equal(alternative, other)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return l.asWithKeywordParameters().getParameters().equals(r.asWithKeywordParameters().getParameters());
+        }
+        return l.equals(r);
+    }
+
+    // The tree with all lazy trees in it replaced by the concrete trees they built. Subtrees without lazy trees are
+    // shared with the given tree.
+    public static ITree materialize(IRascalValueFactory vf, ITree tree) {
+        ITree built = (ITree) unwrap(tree);
+        if (built.isAppl()) {
+            IList args = TreeAdapter.getArgs(built);
+            IListWriter writer = null;
+            for (int i = 0; i < args.length(); i++) {
+                ITree arg = (ITree) args.get(i);
+                ITree materialized = materialize(vf, arg);
+                if (materialized != arg && writer == null) {
+                    writer = vf.listWriter();
+                    for (int j = 0; j < i; j++) {
+                        writer.append(args.get(j));
+                    }
+                }
+                if (writer != null) {
+                    writer.append(materialized);
+                }
+            }
+            if (writer == null) {
+                return built;
+            }
+            return vf.appl(built.getProduction(), writer.done()).asWithKeywordParameters().setParameters(built.asWithKeywordParameters().getParameters());
+        }
+        if (built.isAmb()) {
+            ISetWriter writer = vf.setWriter();
+            boolean changed = false;
+            for (IValue alternative : TreeAdapter.getAlternatives(built)) {
+                ITree materialized = materialize(vf, (ITree) alternative);
+                changed |= materialized != alternative;
+                writer.insert(materialized);
+            }
+            if (!changed) {
+                return built;
+            }
+            return vf.amb(writer.done()).asWithKeywordParameters().setParameters(built.asWithKeywordParameters().getParameters());
+        }
+        return built;
+    }
+
+    // Answered without building the tree
+
+    @Override
+    public Type getType() {
+        return RascalValueFactory.Tree;
+    }
+
+    @Override
+    public Type getConstructorType() {
+        return RascalValueFactory.Tree_Appl;
+    }
+
+    @Override
+    public Type getUninstantiatedConstructorType() {
+        return RascalValueFactory.Tree_Appl;
+    }
+
+    @Override
+    public boolean isAppl() {
+        return true;
+    }
+
+    @Override
+    public boolean isAmb() {
+        return false;
+    }
+
+    @Override
+    public boolean isChar() {
+        return false;
+    }
+
+    @Override
+    public boolean isCycle() {
+        return false;
+    }
+
+    @Override
+    public IConstructor getProduction() {
+        return production;
+    }
+
+    @Override
+    public String getName() {
+        return "appl";
+    }
+
+    @Override
+    public int arity() {
+        return 2;
+    }
+
+    public boolean mayHaveKeywordParameters() {
+        return true;
+    }
+
+    @Override
+    public IWithKeywordParameters<ITree> asWithKeywordParameters() {
+        return new KeywordParameters();
+    }
+
+    // Answered by the built tree
+
+    @Override
+    public IList getArgs() {
+        return get().getArgs();
+    }
+
+    @Override
+    public IValue get(int i) {
+        return i == 0 ? production : get().get(i);
+    }
+
+    @Override
+    public IValue get(String label) {
+        return label.equals("prod") ? production : get().get(label);
+    }
+
+    @Override
+    public boolean has(String label) {
+        return get().has(label);
+    }
+
+    @Override
+    public ITree set(int index, IValue newChild) {
+        return (ITree) get().set(index, newChild);
+    }
+
+    @Override
+    public ITree set(String label, IValue newChild) {
+        return (ITree) get().set(label, newChild);
+    }
+
+    @Override
+    public Type getChildrenTypes() {
+        return get().getChildrenTypes();
+    }
+
+    @Override
+    public Iterable<IValue> getChildren() {
+        return get().getChildren();
+    }
+
+    @Override
+    public Iterator<IValue> iterator() {
+        return get().iterator();
+    }
+
+    @Override
+    public INode replace(int first, int second, int end, IList repl) {
+        return get().replace(first, second, end, repl);
+    }
+
+    @Override
+    public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+        return get().accept(v);
+    }
+
+    @Override
+    public <E extends Throwable> ITree accept(TreeVisitor<E> v) throws E {
+        return get().accept(v);
+    }
+
+    public boolean match(IValue other) {
+        return get().match(unwrap(other));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        return obj instanceof IValue && get().equals(unwrap((IValue) obj));
+    }
+
+    @Override
+    public int hashCode() {
+        return get().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return get().toString();
+    }
+
+    private class KeywordParameters implements IWithKeywordParameters<ITree> {
+
+        private IWithKeywordParameters<? extends IConstructor> parameters() {
+            return get().asWithKeywordParameters();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <X extends IValue> X getParameter(String label) {
+            return label.equals("src") ? (X) getLocation() : parameters().getParameter(label);
+        }
+
+        @Override
+        public boolean hasParameter(String label) {
+            return label.equals("src") || parameters().hasParameter(label);
+        }
+
+        @Override
+        public boolean hasParameters() {
+            return true;
+        }
+
+        @Override
+        public ITree setParameter(String label, IValue newValue) {
+            return (ITree) parameters().setParameter(label, newValue);
+        }
+
+        @Override
+        public ITree unsetParameter(String label) {
+            return (ITree) parameters().unsetParameter(label);
+        }
+
+        @Override
+        public ITree unsetAll() {
+            return (ITree) parameters().unsetAll();
+        }
+
+        @Override
+        public Set<String> getParameterNames() {
+            return parameters().getParameterNames();
+        }
+
+        @Override
+        public Map<String, IValue> getParameters() {
+            return parameters().getParameters();
+        }
+
+        @Override
+        public ITree setParameters(Map<String, IValue> params) {
+            return (ITree) parameters().setParameters(params);
+        }
+
+        @Override
+        public <U extends IWithKeywordParameters<? extends IValue>> boolean equalParameters(U other) {
+            return parameters().equalParameters(other);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IString;
+import io.usethesource.vallang.IValue;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of a lexical production whose tree is determined by its extent in the input, e.g.,
+ * lex Id = [a-z] [a-z0-9]*. The production consists of character classes, literals, and at most one iteration of a
+ * character class, so the tree can be built from the production and the extent alone, without the SPPF.
+ */
+public class LexicalShape {
+
+    private static final int VARIABLE = -1;
+
+    private final IConstructor prod;
+    // Per symbol of the production: its width, or VARIABLE for the iteration
+    private final int[] widths;
+    // Per symbol of the production: the literal production, or the regular definition of the iteration, or null
+    private final IConstructor[] productions;
+    private final int fixedWidth;
+
+    private LexicalShape(IConstructor prod, int[] widths, IConstructor[] productions) {
+        this.prod = prod;
+        this.widths = widths;
+        this.productions = productions;
+        int fixedWidth = 0;
+        for (int width : widths) {
+            if (width != VARIABLE) {
+                fixedWidth += width;
+            }
+        }
+        this.fixedWidth = fixedWidth;
+    }
+
+    // Returns null if the tree of the production is not determined by its extent.
+    public static LexicalShape of(IRascalValueFactory vf, IConstructor prod) {
+        if (!prod.getName().equals("prod") || !IValueUtils.isLexical(prod.get("def"))) {
+            return null;
+        }
+        return shape(vf, prod);
+    }
+
+    // The shape of a layout production, e.g., layout Whitespace = [\ \t\n\r]* !>> [\ \t\n\r], or null
+    public static LexicalShape ofLayout(IRascalValueFactory vf, IConstructor prod) {
+        if (!prod.getName().equals("prod") || !IValueUtils.isLayout(prod.get("def"))) {
+            return null;
+        }
+        return shape(vf, prod);
+    }
+
+    private static LexicalShape shape(IRascalValueFactory vf, IConstructor prod) {
+        IList symbols = (IList) prod.get("symbols");
+        int[] widths = new int[symbols.length()];
+        IConstructor[] productions = new IConstructor[symbols.length()];
+        boolean variable = false;
+        for (int i = 0; i < symbols.length(); i++) {
+            // Conditions and labels do not change the tree of a symbol.
+            IConstructor symbol = strip((IConstructor) symbols.get(i));
+            switch (symbol.getName()) {
+                case "char-class":
+                    widths[i] = 1;
+                    break;
+                case "lit": {
+                    String literal = ((IString) symbol.get("string")).getValue();
+                    widths[i] = literal.codePointCount(0, literal.length());
+                    productions[i] = literalProduction(vf, symbol, literal);
+                    break;
+                }
+                case "iter":
+                case "iter-star":
+                    if (variable || !((IConstructor) symbol.get("symbol")).getName().equals("char-class")) {
+                        return null;
+                    }
+                    variable = true;
+                    widths[i] = VARIABLE;
+                    productions[i] = symbol;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return new LexicalShape(prod, widths, productions);
+    }
+
+    public IConstructor getProduction() {
+        return prod;
+    }
+
+    // Builds the tree of the production from leftExtent to rightExtent, with the same characters and source locations
+    // as the tree built from the SPPF.
+    public ITree build(IRascalValueFactory vf, TreeCache treeCache, Input input, ISourceLocation src, int offset, LineColumnIndex lineColumnIndex, int leftExtent, int rightExtent) {
+        int variableWidth = rightExtent - leftExtent - fixedWidth;
+        IListWriter args = vf.listWriter();
+        int position = leftExtent;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] == VARIABLE) {
+                IListWriter chars = vf.listWriter();
+                for (int j = position; j < position + variableWidth; j++) {
+                    chars.append(treeCache.character(input.charAt(j)));
+                }
+                ISourceLocation location = lineColumnIndex.getSourceLocation(vf, src, offset + position, offset + position + variableWidth);
+                args.append(appl(vf, treeCache.regular(productions[i]), chars.done(), location));
+                position += variableWidth;
+            } else if (productions[i] != null) {
+                args.append(treeCache.literal(productions[i], input, position, position + widths[i]));
+                position += widths[i];
+            } else {
+                args.append(treeCache.character(input.charAt(position)));
+                position++;
+            }
+        }
+        ISourceLocation location = lineColumnIndex.getSourceLocation(vf, src, offset + leftExtent, offset + rightExtent);
+        return appl(vf, prod, args.done(), location);
+    }
+
+    private static ITree appl(IRascalValueFactory vf, IConstructor prod, IList args, ISourceLocation location) {
+        return (ITree) vf.appl(prod, args)
+            .asWithKeywordParameters()
+            .setParameter("src", location);
+    }
+
+    private static IConstructor strip(IConstructor symbol) {
+        while (symbol.getName().equals("label") || symbol.getName().equals("conditional")) {
+            symbol = (IConstructor) symbol.get("symbol");
+        }
+        return symbol;
+    }
+
+    // Rascal defines a literal as the sequence of its characters: prod(lit("if"), [\char-class([range(105,105)]), ...], {}).
+    private static IConstructor literalProduction(IRascalValueFactory vf, IConstructor literal, String string) {
+        List<IValue> symbols = new ArrayList<>();
+        string.codePoints().forEach(c -> {
+            IConstructor range = vf.constructor(RascalValueFactory.CharRange_Range, vf.integer(c), vf.integer(c));
+            symbols.add(vf.constructor(RascalValueFactory.Symbol_CharClass, vf.list(range)));
+        });
+        IListWriter writer = vf.listWriter();
+        writer.appendAll(symbols);
+        return vf.constructor(RascalValueFactory.Production_Default, literal, writer.done(), vf.set());
+    }
+}
@@ -0,0 +1,66 @@
+package util;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValueFactory;
+import org.iguana.utils.input.Input;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets in an input to Rascal line and column numbers. The start offsets of the lines are computed once per
+ * input, after which a lookup is a binary search over these offsets.
+ */
+public class LineColumnIndex {
+
+    private int[] lineStarts;
+    private int lineCount;
+
+    public LineColumnIndex(Input input) {
+        lineStarts = new int[64];
+        lineCount = 1;
+        int length = input.length();
+        // Lines end with \n, \r or \r\n, as in Rascal's own parser.
+        for (int i = 0; i < length; i++) {
+            int c = input.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == length || input.charAt(i + 1) != '\n'))) {
+                addLineStart(i + 1);
+            }
+        }
+    }
+
+    // The index of the input, which is the one of the input itself if it has one.
+    public static LineColumnIndex of(Input input) {
+        if (input instanceof ChunkedInput) {
+            return ((ChunkedInput) input).getLineColumnIndex();
+        }
+        return new LineColumnIndex(input);
+    }
+
+    private void addLineStart(int offset) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[lineCount++] = offset;
+    }
+
+    // Lines start from 1
+    public int getLine(int offset) {
+        return getLineIndex(offset) + 1;
+    }
+
+    // Columns start from 0
+    public int getColumn(int offset) {
+        return offset - lineStarts[getLineIndex(offset)];
+    }
+
+    public ISourceLocation getSourceLocation(IValueFactory vf, ISourceLocation src, int leftExtent, int rightExtent) {
+        return vf.sourceLocation(src, leftExtent, rightExtent - leftExtent, getLine(leftExtent), getLine(rightExtent), getColumn(leftExtent), getColumn(rightExtent));
+    }
+
+    private int getLineIndex(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        // If the offset is not the start of a line, binarySearch returns -(insertion point) - 1, and the offset is on
+        // the line before the insertion point.
+        return index >= 0 ? index : -index - 2;
+    }
+}
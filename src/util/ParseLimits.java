@@ -0,0 +1,109 @@
+package util;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.type.TypeStore;
+import org.rascalmpl.exceptions.Throw;
+import org.rascalmpl.values.IRascalValueFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Budgets for a single call to a generated parser: a wall-clock timeout, a maximum number of descriptors, SPPF nodes
+ * and tree nodes, and a maximum number of bytes allocated by the call. A call is also stopped when it is cancelled,
+ * or when its thread is interrupted. Zero means no limit.
+ */
+public class ParseLimits {
+
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+    public static final ParseLimits NONE = new ParseLimits(0, 0, 0);
+
+    private static final TypeFactory tf = TypeFactory.getInstance();
+    private static final TypeStore store = new TypeStore();
+    private static final Type RascalRuntimeException = tf.abstractDataType(store, "RuntimeException");
+    private static final Type RuntimeException_ParseLimitExceeded = tf.constructor(store, RascalRuntimeException, "ParseLimitExceeded", tf.stringType(), "limit", tf.sourceLocationType(), "location");
+
+    private final long timeoutMillis;
+    private final long maxNodes;
+    private final long maxBytes;
+    private final BooleanSupplier cancelled;
+
+    public ParseLimits(long timeoutMillis, long maxNodes, long maxBytes) {
+        this(timeoutMillis, maxNodes, maxBytes, NEVER_CANCELLED);
+    }
+
+    // The call is cancelled once cancelled returns true, e.g., AtomicBoolean::get.
+    public ParseLimits(long timeoutMillis, long maxNodes, long maxBytes, BooleanSupplier cancelled) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxNodes = maxNodes;
+        this.maxBytes = maxBytes;
+        this.cancelled = cancelled;
+    }
+
+    public boolean isNone() {
+        return timeoutMillis <= 0 && maxNodes <= 0 && maxBytes <= 0 && cancelled == NEVER_CANCELLED;
+    }
+
+    public Guard start(IRascalValueFactory vf, ISourceLocation src) {
+        return new Guard(vf, src);
+    }
+
+    /**
+     * Checks the limits during one call. After the call, e.g., when lazy trees are built later, nothing is checked.
+     */
+    public class Guard {
+        private final IRascalValueFactory vf;
+        private final ISourceLocation src;
+        private final long deadline;
+        private final long allocatedBefore;
+        private volatile boolean closed;
+
+        private Guard(IRascalValueFactory vf, ISourceLocation src) {
+            this.vf = vf;
+            this.src = src;
+            this.deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000 : Long.MAX_VALUE;
+            this.allocatedBefore = maxBytes > 0 ? allocatedBytes() : 0;
+        }
+
+        // Checks the time, the allocated bytes and cancellation; offset is the position in the input of the parse.
+        public void check(int offset) {
+            if (closed) {
+                return;
+            }
+            if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+                throw exceeded("cancelled", offset);
+            }
+            if (System.nanoTime() > deadline) {
+                throw exceeded("timeout", offset);
+            }
+            if (maxBytes > 0 && allocatedBytes() - allocatedBefore > maxBytes) {
+                throw exceeded("maxBytes", offset);
+            }
+        }
+
+        public void checkNodes(long nodes, int offset) {
+            if (!closed && maxNodes > 0 && nodes > maxNodes) {
+                throw exceeded("maxNodes", offset);
+            }
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        private Throw exceeded(String limit, int offset) {
+            ISourceLocation location = offset < 0 ? src : vf.sourceLocation(src, offset, 0);
+            return new Throw(vf.constructor(RuntimeException_ParseLimitExceeded, vf.string(limit), location), (ISourceLocation) null, null);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
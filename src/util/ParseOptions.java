@@ -0,0 +1,46 @@
+package util;
+
+/**
+ * The options of a call to a generated parser, which determine the tree that is built from the SPPF.
+ */
+public class ParseOptions {
+
+    public static final ParseOptions DEFAULT = new ParseOptions(false, false, AmbiguityPolicy.KEEP, ParseLimits.NONE);
+
+    private final boolean lazy;
+    private final boolean compactLexicals;
+    private final AmbiguityPolicy ambiguityPolicy;
+    private final ParseLimits limits;
+
+    public ParseOptions(boolean lazy, boolean compactLexicals, AmbiguityPolicy ambiguityPolicy, ParseLimits limits) {
+        this.lazy = lazy;
+        this.compactLexicals = compactLexicals;
+        this.ambiguityPolicy = ambiguityPolicy;
+        this.limits = limits;
+    }
+
+    // In lazy mode, the trees of Rascal productions are built from the SPPF on first use.
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    // With compact lexicals, the character trees of lexicals are built from the input on first use.
+    public boolean isCompactLexicals() {
+        return compactLexicals;
+    }
+
+    public AmbiguityPolicy getAmbiguityPolicy() {
+        return ambiguityPolicy;
+    }
+
+    public ParseLimits getLimits() {
+        return limits;
+    }
+
+    // Distinguishes the trees built with different options, e.g., in the keys of cached trees. The limits do not
+    // change the tree, only whether it is built.
+    @Override
+    public String toString() {
+        return (lazy ? "lazy-" : "") + (compactLexicals ? "compact-" : "") + ambiguityPolicy;
+    }
+}
@@ -0,0 +1,251 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A cache of parse trees, keyed by the grammar, the start symbol and the content of the input, so unchanged inputs
+ * are not parsed again. Recently used trees are kept in memory, and all trees are written to disk, from where they
+ * are relocated to the location they are requested for.
+ */
+public class ParseResultCache {
+
+    private static final String EXTENSION = ".tree";
+
+    private final IRascalValueFactory vf;
+    private final int capacity;
+    // The trees in memory have source locations, so their key includes the location.
+    private final Map<String, ITree> trees;
+    // The directory is created and checked on the first tree that is stored, so a cache that is never used does not
+    // write to the home directory of the user. It is null if there is no disk tier or it cannot be used.
+    private Path directory;
+    private boolean directoryChecked;
+    private final long diskCapacity;
+    // The bytes of the trees on disk, which is counted once and then kept up to date, so a write does not list the
+    // directory. Other processes can write to the same directory, so it is counted again at each eviction.
+    private long diskSize = -1;
+    private final Object diskLock = new Object();
+    private final Map<IValue, String> symbolHashes = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParseResultCache(IRascalValueFactory vf, int capacity, Path directory, long diskCapacity) {
+        this.vf = vf;
+        this.capacity = capacity;
+        this.directory = directory;
+        this.diskCapacity = diskCapacity;
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ITree> eldest) {
+                return size() > ParseResultCache.this.capacity;
+            }
+        };
+    }
+
+    // The number of trees in memory can be set with -Drascal.iguana.parseCacheSize, and the directory and its size
+    // in bytes with -Drascal.iguana.parseCacheDir and -Drascal.iguana.parseCacheDiskSize; an empty directory disables
+    // the disk tier.
+    public static ParseResultCache fromSystemProperties(IRascalValueFactory vf) {
+        int capacity = Integer.getInteger("rascal.iguana.parseCacheSize", 64);
+        String dir = System.getProperty("rascal.iguana.parseCacheDir", CacheDirectory.getDefault("trees").toString());
+        long diskCapacity = Long.getLong("rascal.iguana.parseCacheDiskSize", 256L * 1024 * 1024);
+        return new ParseResultCache(vf, capacity, dir.isEmpty() ? null : Paths.get(dir), diskCapacity);
+    }
+
+    // The trees are read back from the directory, so, as for the grammar cache, it has to be private to the user.
+    private Path getDirectory() {
+        synchronized (diskLock) {
+            if (!directoryChecked) {
+                directoryChecked = true;
+                if (directory != null && !CacheDirectory.createPrivate(directory)) {
+                    directory = null;
+                }
+            }
+            return directory;
+        }
+    }
+
+    // Trees are only written to disk if store is set. Writing a lazy tree builds all of it, so lazy trees are only
+    // kept in memory.
+    public ITree get(String grammarHash, IConstructor symbol, Input input, ISourceLocation src, boolean store, Supplier<ITree> parser) {
+        String key = grammarHash + "-" + symbolHashes.computeIfAbsent(symbol, s -> GrammarCache.hash(vf, s)) + "-" + hash(input);
+        String memoryKey = key + src;
+
+        synchronized (trees) {
+            ITree tree = trees.get(memoryKey);
+            if (tree != null) {
+                memoryHits.incrementAndGet();
+                return tree;
+            }
+        }
+
+        Path directory = store ? getDirectory() : null;
+        Path file = directory == null ? null : directory.resolve(key + EXTENSION);
+        ITree tree = file == null ? null : read(file, src);
+        if (tree != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            // Parse errors are not cached, they are thrown to the caller.
+            tree = parser.get();
+            if (file != null) {
+                write(file, tree);
+            }
+        }
+
+        synchronized (trees) {
+            trees.put(memoryKey, tree);
+        }
+        return tree;
+    }
+
+    private ITree read(Path file, ISourceLocation src) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            ITree tree = new TreeSerializer(vf).read(in, src);
+            // The modification time is the last use, for the eviction of the least recently used trees.
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return tree;
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // The file is corrupt or was written by an incompatible version. It is removed, so the input is parsed
+            // again and the file is written anew, even if this parse fails.
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException deleteError) {
+                // Overwritten after a successful parse
+            }
+            return null;
+        }
+    }
+
+    private void write(Path file, ITree tree) {
+        Path directory = file.getParent();
+        try {
+            Files.createDirectories(directory);
+            // Write to a temporary file first, so concurrent readers never see a partially written tree.
+            Path tmp = Files.createTempFile(directory, "tree", ".tmp");
+            long added;
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    new TreeSerializer(vf).write(tree, out);
+                }
+                added = Files.size(tmp);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            synchronized (diskLock) {
+                if (diskSize < 0) {
+                    diskSize = evict(directory, Long.MAX_VALUE);
+                } else {
+                    diskSize += added;
+                }
+                // Evicting lists the directory, so it evicts a quarter of the capacity at a time.
+                if (diskSize > diskCapacity) {
+                    diskSize = evict(directory, diskCapacity - diskCapacity / 4);
+                }
+            }
+        } catch (IOException e) {
+            // Caching is best effort, e.g., the directory may not be writable.
+        }
+    }
+
+    // Removes the least recently used trees until the trees on disk fit in the given size, and returns the size of the
+    // remaining trees.
+    private long evict(Path directory, long size) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(f -> f.toString().endsWith(EXTENSION)).collect(Collectors.toList());
+        }
+        Map<Path, Long> sizes = new HashMap<>();
+        Map<Path, FileTime> times = new HashMap<>();
+        long total = 0;
+        for (Path file : files) {
+            try {
+                sizes.put(file, Files.size(file));
+                times.put(file, Files.getLastModifiedTime(file));
+                total += sizes.get(file);
+            } catch (IOException e) {
+                // Removed by another process meanwhile
+            }
+        }
+        if (total <= size) {
+            return total;
+        }
+        List<Path> oldestFirst = new ArrayList<>(times.keySet());
+        oldestFirst.sort(Comparator.comparing(times::get));
+        for (Path file : oldestFirst) {
+            if (total <= size) {
+                break;
+            }
+            Files.deleteIfExists(file);
+            total -= sizes.get(file);
+        }
+        return total;
+    }
+
+    // A content hash of the characters of the input
+    private static String hash(Input input) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buffer = new byte[4 * 1024];
+        int position = 0;
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            int c = input.charAt(i);
+            buffer[position++] = (byte) (c >>> 24);
+            buffer[position++] = (byte) (c >>> 16);
+            buffer[position++] = (byte) (c >>> 8);
+            buffer[position++] = (byte) c;
+            if (position == buffer.length) {
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+        }
+        digest.update(buffer, 0, position);
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
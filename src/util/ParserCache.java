@@ -0,0 +1,126 @@
+package util;
+
+import io.usethesource.vallang.IValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of generated parsers, keyed by the grammar value and the variant of its conversion, see
+ * RascalGrammarToIguanaGrammarConverter.getVariant. When the cache is full, the least recently used parser is evicted.
+ */
+public class ParserCache {
+
+    private final int capacity;
+    private final Map<Key, GeneratedParser> parsers;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ParserCache(int capacity) {
+        this.capacity = capacity;
+        this.parsers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, GeneratedParser> eldest) {
+                if (size() > ParserCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    eldest.getValue().getStatistics().unregister();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // The capacity can be set with -Drascal.iguana.parserCacheSize; zero disables the cache.
+    public static ParserCache fromSystemProperties() {
+        return new ParserCache(Integer.getInteger("rascal.iguana.parserCacheSize", 16));
+    }
+
+    public GeneratedParser get(IValue grammar, String variant, Function<IValue, GeneratedParser> generator) {
+        if (capacity <= 0) {
+            // Nothing is cached, so nothing is evicted, and the parser is not registered for monitoring.
+            misses.incrementAndGet();
+            return generator.apply(grammar);
+        }
+        Key key = new Key(grammar, variant);
+        synchronized (parsers) {
+            GeneratedParser parser = parsers.get(key);
+            if (parser != null) {
+                hits.incrementAndGet();
+                return parser;
+            }
+        }
+        misses.incrementAndGet();
+
+        // Generating a parser for a large grammar takes a while, so we do not hold the lock meanwhile. If two threads
+        // generate a parser for the same grammar, the first one to finish wins.
+        GeneratedParser parser = generator.apply(grammar);
+        synchronized (parsers) {
+            GeneratedParser existing = parsers.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            // Registered while the parser is cached, it is unregistered when it is evicted.
+            parser.getStatistics().register(Integer.toHexString(grammar.hashCode()) + (variant.isEmpty() ? "" : "-" + variant));
+            parsers.put(key, parser);
+            return parser;
+        }
+    }
+
+    // Returns the cached parser for the grammar, or null. This does not count as a hit or a miss.
+    public GeneratedParser getIfPresent(IValue grammar, String variant) {
+        synchronized (parsers) {
+            return parsers.get(new Key(grammar, variant));
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (parsers) {
+            return parsers.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static class Key {
+        private final IValue grammar;
+        private final String variant;
+
+        Key(IValue grammar, String variant) {
+            this.grammar = grammar;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return grammar.equals(other.grammar) && variant.equals(other.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * grammar.hashCode() + variant.hashCode();
+        }
+    }
+}
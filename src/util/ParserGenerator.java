@@ -1,65 +1,301 @@
 package util;
 
+import io.usethesource.vallang.IBool;
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IInteger;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.IMap;
+import io.usethesource.vallang.IMapWriter;
+import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISourceLocation;
 import io.usethesource.vallang.IString;
+import io.usethesource.vallang.ITuple;
 import io.usethesource.vallang.IValue;
 import io.usethesource.vallang.type.Type;
 import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.type.TypeStore;
 import org.iguana.grammar.Grammar;
-import org.iguana.grammar.symbol.Start;
-import org.iguana.grammar.symbol.Symbol;
-import org.iguana.parser.IguanaParser;
-import org.iguana.result.ParserResultOps;
-import org.iguana.traversal.DefaultSPPFToParseTreeVisitor;
 import org.iguana.utils.input.Input;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+import org.rascalmpl.exceptions.Throw;
+import org.rascalmpl.uri.URIResolverRegistry;
 import org.rascalmpl.values.IRascalValueFactory;
 import org.rascalmpl.values.RascalValueFactory;
 import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.SymbolAdapter;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ParserGenerator {
+    // Shared by all instances, as Rascal creates an instance of this class per evaluator.
+    private static final ParserCache parserCache = ParserCache.fromSystemProperties();
+
     private final IRascalValueFactory vf;
     private final TypeFactory tf;
     private final Type ftype;
+    private final Type locationType;
+    private final Type recognizerType;
+    private final Type locationRecognizerType;
+    private final Type incrementalType;
+    private final Type Recognition;
+    private final Type Recognition_success;
+    private final Type Recognition_failure;
+    private final Type ProductionProfile_profile;
+    private final Type RuntimeException_Java;
+    private final GrammarCache grammarCache;
+    private final ParseResultCache parseResultCache;
 
     public ParserGenerator(IRascalValueFactory vf, TypeFactory tf) {
         this.vf = vf;
         this.tf = tf;
         Type typeOfTree = RascalValueFactory.Type.instantiate(Map.of(RascalValueFactory.TypeParam, RascalValueFactory.Tree));
         this.ftype = tf.functionType(RascalValueFactory.Tree, tf.tupleType(typeOfTree, tf.stringType(), tf.sourceLocationType()), tf.tupleEmpty());
+        this.locationType = tf.functionType(RascalValueFactory.Tree, tf.tupleType(typeOfTree, tf.sourceLocationType(), tf.sourceLocationType()), tf.tupleEmpty());
+        this.grammarCache = GrammarCache.fromSystemProperties(vf);
+        this.parseResultCache = ParseResultCache.fromSystemProperties(vf);
+
+        TypeStore store = new TypeStore();
+        this.Recognition = tf.abstractDataType(store, "Recognition");
+        this.Recognition_success = tf.constructor(store, Recognition, "success");
+        this.Recognition_failure = tf.constructor(store, Recognition, "failure", tf.sourceLocationType(), "location");
+        Type RuntimeException = tf.abstractDataType(store, "RuntimeException");
+        this.RuntimeException_Java = tf.constructor(store, RuntimeException, "Java", tf.stringType(), "class", tf.stringType(), "message");
+        Type ProductionProfile = tf.abstractDataType(store, "ProductionProfile");
+        this.ProductionProfile_profile = tf.constructor(store, ProductionProfile, "profile", RascalValueFactory.Production, "prod",
+            tf.integerType(), "nonterminalNodes", tf.integerType(), "intermediateNodes", tf.integerType(), "packedNodes", tf.integerType(), "ambiguities");
+        this.incrementalType = tf.functionType(RascalValueFactory.Tree, tf.tupleType(typeOfTree, RascalValueFactory.Tree, tf.integerType(), tf.integerType(), tf.stringType()), tf.tupleEmpty());
+        this.recognizerType = tf.functionType(Recognition, tf.tupleType(typeOfTree, tf.stringType(), tf.sourceLocationType()), tf.tupleEmpty());
+        this.locationRecognizerType = tf.functionType(Recognition, tf.tupleType(typeOfTree, tf.sourceLocationType(), tf.sourceLocationType()), tf.tupleEmpty());
+    }
+
+    public IValue createParser(IValue grammar, IBool lazy, IBool compactLexicals, IBool cache, IConstructor ambiguities, IInteger timeout, IInteger maxNodes, IInteger maxBytes) {
+        return createParser(ftype, grammar, lazy, compactLexicals, cache, ambiguities, timeout, maxNodes, maxBytes);
+    }
+
+    // The same parser, which reads the input from a loc instead of from a str
+    public IValue createLocationParser(IValue grammar, IBool lazy, IBool compactLexicals, IBool cache, IConstructor ambiguities, IInteger timeout, IInteger maxNodes, IInteger maxBytes) {
+        return createParser(locationType, grammar, lazy, compactLexicals, cache, ambiguities, timeout, maxNodes, maxBytes);
     }
 
-    public IValue createParser(IValue grammar) {
-        RascalGrammarToIguanaGrammarConverter converter = new RascalGrammarToIguanaGrammarConverter();
-        Grammar iguanaGrammar = converter.convert((IConstructor) grammar);
-        IguanaParser parser = new IguanaParser(iguanaGrammar);
+    private IValue createParser(Type ftype, IValue grammar, IBool lazy, IBool compactLexicals, IBool cache, IConstructor ambiguities, IInteger timeout, IInteger maxNodes, IInteger maxBytes) {
+        // The generated parser has no per-call state of its own, so the returned function can be called
+        // from multiple threads at the same time.
+        GeneratedParser parser = getParser(grammar);
+        ParseOptions options = getParseOptions(lazy, compactLexicals, ambiguities, timeout, maxNodes, maxBytes);
+
+        if (cache.getValue()) {
+            // The options change the tree, so they are part of the key.
+            String grammarHash = GrammarCache.hash(vf, grammar) + "-" + options;
+            return vf.function(ftype, (args, kwArgs) -> {
+                IConstructor symbol = (IConstructor) ((IConstructor) args[0]).get(0);
+                Input input = InputUtils.toInput(args[1]);
+                ISourceLocation src = (ISourceLocation) args[2];
+                return parseResultCache.get(grammarHash, symbol, input, src, !options.isLazy(), () -> parser.parse(symbol, input, src, options));
+            });
+        }
 
         return vf.function(ftype, (args, kwArgs) -> {
-            // input is a string for now
             IConstructor type = (IConstructor) args[0]; // the reified type
             IConstructor symbol = (IConstructor) type.get(0); // the symbol
+            IValue input = args[1]; // a str, or a loc to read the input from
+            ISourceLocation src = (ISourceLocation) args[2];
+            return parser.parse(symbol, input, src, options);
+        });
+    }
 
-            Symbol start;
-            try {
-                start = (Symbol) symbol.accept(new RascalGrammarToIguanaGrammarConverter.ValueVisitor());
-                // This is a hack for now, we need to change the Iguana symbol hierarchy to allow start accept a
-                // symbol instead of string to make this unified.
-                if (symbol.getName().equals("start")) {
-                    start = Start.from(start.getName());
-                }
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
-            }
-            IString inputString = (IString) args[1];
-            Input input = Input.fromString(inputString.getValue());
-            parser.parse(input, start);
+    public IValue createRecognizer(IValue grammar) {
+        return createRecognizer(recognizerType, grammar);
+    }
+
+    // The same recognizer, which reads the input from a loc instead of from a str
+    public IValue createLocationRecognizer(IValue grammar) {
+        return createRecognizer(locationRecognizerType, grammar);
+    }
 
+    private IValue createRecognizer(Type recognizerType, IValue grammar) {
+        GeneratedParser parser = getParser(grammar);
+
+        return vf.function(recognizerType, (args, kwArgs) -> {
+            IConstructor symbol = (IConstructor) ((IConstructor) args[0]).get(0);
+            Input input = InputUtils.toInput(args[1]);
             ISourceLocation src = (ISourceLocation) args[2];
+            ISourceLocation error = parser.recognize(symbol, input, src);
+            return error == null ? vf.constructor(Recognition_success) : vf.constructor(Recognition_failure, error);
+        });
+    }
+
+    private static ParseOptions getParseOptions(IBool lazy, IBool compactLexicals, IConstructor ambiguities, IInteger timeout, IInteger maxNodes, IInteger maxBytes) {
+        ParseLimits limits = new ParseLimits(timeout.longValue(), maxNodes.longValue(), maxBytes.longValue());
+        return new ParseOptions(lazy.getValue(), compactLexicals.getValue(), AmbiguityPolicy.fromConstructor(ambiguities), limits);
+    }
+
+    // The options are the ones of createParser, and apply to the reparsed subtrees as well as to full parses.
+    public IValue createIncrementalParser(IValue grammar, IBool lazy, IBool compactLexicals, IConstructor ambiguities, IInteger timeout, IInteger maxNodes, IInteger maxBytes) {
+        GeneratedParser parser = getParser(grammar);
+        IncrementalReparser reparser = new IncrementalReparser(vf, parser, getParseOptions(lazy, compactLexicals, ambiguities, timeout, maxNodes, maxBytes));
 
-            RascalParseTreeBuilder parseTreeBuilder = new RascalParseTreeBuilder(vf, input, src);
-            DefaultSPPFToParseTreeVisitor<ITree> visitor = new DefaultSPPFToParseTreeVisitor<>(parseTreeBuilder, input, false, new ParserResultOps());
-            return parser.getSPPF().accept(visitor);
+        return vf.function(incrementalType, (args, kwArgs) -> {
+            IConstructor symbol = (IConstructor) ((IConstructor) args[0]).get(0);
+            ITree previous = (ITree) args[1];
+            int offset = ((IInteger) args[2]).intValue();
+            int deleted = ((IInteger) args[3]).intValue();
+            String inserted = ((IString) args[4]).getValue();
+            return reparser.reparse(symbol, previous, offset, deleted, inserted);
         });
     }
+
+    public ITuple parseAll(IValue grammar, IValue startSymbol, ISet files) {
+        List<ISourceLocation> locations = files.stream().map(ISourceLocation.class::cast).collect(Collectors.toList());
+        return parseAll(grammar, startSymbol, locations, new ArrayList<>(locations));
+    }
+
+    public ITuple parseAll(IValue grammar, IValue startSymbol, IMap inputs) {
+        List<ISourceLocation> locations = inputs.stream().map(ISourceLocation.class::cast).collect(Collectors.toList());
+        return parseAll(grammar, startSymbol, locations, locations.stream().map(inputs::get).collect(Collectors.toList()));
+    }
+
+    // Parses all inputs in parallel with one generated parser. Parse errors, I/O errors and other exceptions are
+    // collected per input, instead of aborting the whole batch.
+    private ITuple parseAll(IValue grammar, IValue startSymbol, List<ISourceLocation> locations, List<IValue> inputs) {
+        GeneratedParser parser = getParser(grammar);
+        IConstructor symbol = (IConstructor) ((IConstructor) startSymbol).get(0);
+
+        IValue[] trees = new IValue[locations.size()];
+        IValue[] errors = new IValue[locations.size()];
+        IntStream.range(0, locations.size()).parallel().forEach(i -> {
+            try {
+                trees[i] = parser.parse(symbol, inputs.get(i), locations.get(i), ParseOptions.DEFAULT);
+            } catch (Throw e) {
+                errors[i] = e.getException();
+            } catch (RuntimeException e) {
+                // A bug, e.g., in Iguana, fails the input it happens on, not the whole batch.
+                errors[i] = vf.constructor(RuntimeException_Java, vf.string(e.getClass().getName()), vf.string(String.valueOf(e.getMessage())));
+            }
+        });
+
+        IMapWriter treesWriter = vf.mapWriter();
+        IMapWriter errorsWriter = vf.mapWriter();
+        for (int i = 0; i < locations.size(); i++) {
+            if (trees[i] != null) {
+                treesWriter.put(locations.get(i), trees[i]);
+            } else {
+                errorsWriter.put(locations.get(i), errors[i]);
+            }
+        }
+        return vf.tuple(treesWriter.done(), errorsWriter.done());
+    }
+
+    public IMap parserStatistics(IValue grammar) {
+        IMapWriter result = vf.mapWriter();
+        GeneratedParser parser = parserCache.getIfPresent(grammar, RascalGrammarToIguanaGrammarConverter.fromSystemProperties().getVariant());
+        if (parser != null) {
+            parser.getStatistics().toMap().forEach((name, value) -> result.put(vf.string(name), vf.integer(value)));
+        }
+        return result.done();
+    }
+
+    public IList profileParser(IValue grammar, IValue startSymbol, IString input, ISourceLocation src) {
+        return profile(grammar, startSymbol, input, src);
+    }
+
+    public IList profileParser(IValue grammar, IValue startSymbol, ISourceLocation input, ISourceLocation src) {
+        return profile(grammar, startSymbol, input, src);
+    }
+
+    // The productions ordered by the number of SPPF nodes they created while parsing the input, most first
+    private IList profile(IValue grammar, IValue startSymbol, IValue input, ISourceLocation src) {
+        GeneratedParser parser = getParser(grammar);
+        IConstructor symbol = (IConstructor) ((IConstructor) startSymbol).get(0);
+        Map<IConstructor, ProductionProfiler.Counts> profile = parser.profile(symbol, InputUtils.toInput(input), src);
+
+        List<Map.Entry<IConstructor, ProductionProfiler.Counts>> entries = new ArrayList<>(profile.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<IConstructor, ProductionProfiler.Counts> e) -> e.getValue().getNodes())
+            .thenComparingLong(e -> e.getValue().ambiguities)
+            .reversed());
+        IListWriter result = vf.listWriter();
+        for (Map.Entry<IConstructor, ProductionProfiler.Counts> entry : entries) {
+            ProductionProfiler.Counts counts = entry.getValue();
+            result.append(vf.constructor(ProductionProfile_profile, entry.getKey(), vf.integer(counts.nonterminalNodes),
+                vf.integer(counts.intermediateNodes), vf.integer(counts.packedNodes), vf.integer(counts.ambiguities)));
+        }
+        return result.done();
+    }
+
+    public void writeParseTree(ISourceLocation file, IValue tree) {
+        try (OutputStream out = new BufferedOutputStream(URIResolverRegistry.getInstance().getOutputStream(file, false))) {
+            new TreeSerializer(vf).write((ITree) tree, out);
+        } catch (IOException e) {
+            throw RuntimeExceptionFactory.io(e.getMessage());
+        }
+    }
+
+    public IValue readParseTree(IValue startSymbol, ISourceLocation file) {
+        return readParseTree(startSymbol, file, null);
+    }
+
+    // The tree is checked against the start symbol, since the caller gets it as a tree of that symbol.
+    public IValue readParseTree(IValue startSymbol, ISourceLocation file, ISourceLocation src) {
+        ITree tree;
+        try (InputStream in = new BufferedInputStream(URIResolverRegistry.getInstance().getInputStream(file))) {
+            tree = new TreeSerializer(vf).read(in, src);
+        } catch (IOException e) {
+            throw RuntimeExceptionFactory.io(e.getMessage());
+        }
+        IConstructor expected = SymbolAdapter.delabel((IConstructor) ((IConstructor) startSymbol).get("symbol"));
+        IConstructor actual = SymbolAdapter.delabel(TreeAdapter.getType(tree));
+        if (!expected.equals(actual)) {
+            throw RuntimeExceptionFactory.illegalArgument(startSymbol, "The tree in " + file + " is a " + SymbolAdapter.toString(actual, false) + ", not a " + SymbolAdapter.toString(expected, false));
+        }
+        return tree;
+    }
+
+    public IBool equalTrees(IValue left, IValue right) {
+        return vf.bool(LazyTree.equal(left, right));
+    }
+
+    public IValue materialize(IValue tree) {
+        return LazyTree.materialize(vf, (ITree) tree);
+    }
+
+    public IMap parserCacheStatistics() {
+        IMapWriter statistics = vf.mapWriter();
+        statistics.put(vf.string("hits"), vf.integer(parserCache.getHits()));
+        statistics.put(vf.string("misses"), vf.integer(parserCache.getMisses()));
+        statistics.put(vf.string("evictions"), vf.integer(parserCache.getEvictions()));
+        statistics.put(vf.string("size"), vf.integer(parserCache.size()));
+        statistics.put(vf.string("capacity"), vf.integer(parserCache.getCapacity()));
+        return statistics.done();
+    }
+
+    public IMap parseResultCacheStatistics() {
+        IMapWriter statistics = vf.mapWriter();
+        statistics.put(vf.string("memoryHits"), vf.integer(parseResultCache.getMemoryHits()));
+        statistics.put(vf.string("diskHits"), vf.integer(parseResultCache.getDiskHits()));
+        statistics.put(vf.string("misses"), vf.integer(parseResultCache.getMisses()));
+        return statistics.done();
+    }
+
+    // The options of the conversion are read when the parser is requested, so the parser of a grammar converted with
+    // other options is not returned from the cache.
+    private GeneratedParser getParser(IValue grammar) {
+        RascalGrammarToIguanaGrammarConverter converter = RascalGrammarToIguanaGrammarConverter.fromSystemProperties();
+        return parserCache.get(grammar, converter.getVariant(), g -> generateParser(g, converter));
+    }
+
+    private GeneratedParser generateParser(IValue grammar, RascalGrammarToIguanaGrammarConverter converter) {
+        Grammar iguanaGrammar = grammarCache.get(grammar, converter.getVariant(), g -> converter.convert((IConstructor) g));
+        return new GeneratedParser(vf, iguanaGrammar);
+    }
 }
@@ -0,0 +1,47 @@
+package util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A pool of Iguana parsers or recognizers for one grammar. Creating one builds the runtime tables of the grammar,
+ * so idle ones are reused by later calls on any thread, instead of one per thread. A parser is used by one call at a
+ * time.
+ */
+public class ParserPool<T> {
+
+    private final Supplier<T> factory;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public ParserPool(Supplier<T> factory, int capacity) {
+        this.factory = factory;
+        this.capacity = capacity;
+    }
+
+    // At most one idle parser per core, as more calls than cores do not run at the same time.
+    public ParserPool(Supplier<T> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public T take() {
+        T parser = idle.poll();
+        if (parser == null) {
+            return factory.get();
+        }
+        idleCount.decrementAndGet();
+        return parser;
+    }
+
+    // The caller clears the state of the parser first, so an idle parser does not keep the state of its last call alive.
+    public void release(T parser) {
+        if (idleCount.incrementAndGet() <= capacity) {
+            idle.offer(parser);
+        } else {
+            // More parsers were used at the same time than are kept.
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package util;
+
+import org.iguana.util.ParseStatistics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The totals over all calls to a generated parser, per phase: creating the input, the Iguana parse, and building the
+ * tree from the SPPF. The statistics are also registered as an MXBean, to monitor long-running processes.
+ */
+public class ParserStatistics implements ParserStatisticsMXBean {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final AtomicLong instances = new AtomicLong();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder inputNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder treeNanos = new LongAdder();
+    private final LongAdder descriptors = new LongAdder();
+    private final LongAdder gssNodes = new LongAdder();
+    private final LongAdder gssEdges = new LongAdder();
+    private final LongAdder sppfNodes = new LongAdder();
+    private final LongAdder packedNodes = new LongAdder();
+    private final LongAdder ambiguities = new LongAdder();
+    private final LongAdder treeNodes = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private ObjectName name;
+
+    /**
+     * The measurements of a single call, which is recorded when the call is done.
+     */
+    public static class Call {
+        private final long allocatedBefore = currentThreadAllocatedBytes();
+        private long start = System.nanoTime();
+
+        long inputNanos;
+        long parseNanos;
+        long treeNanos;
+        long treeNodes;
+        ParseStatistics iguanaStatistics;
+
+        // Returns the time since the previous phase ended.
+        long endPhase() {
+            long now = System.nanoTime();
+            long duration = now - start;
+            start = now;
+            return duration;
+        }
+    }
+
+    public void record(Call call, boolean failed) {
+        calls.increment();
+        if (failed) {
+            failures.increment();
+        }
+        inputNanos.add(call.inputNanos);
+        parseNanos.add(call.parseNanos);
+        treeNanos.add(call.treeNanos);
+        treeNodes.add(call.treeNodes);
+        ParseStatistics statistics = call.iguanaStatistics;
+        if (statistics != null) {
+            descriptors.add(statistics.getDescriptorsCount());
+            gssNodes.add(statistics.getGSSNodesCount());
+            gssEdges.add(statistics.getGSSEdgesCount());
+            sppfNodes.add(statistics.getNonterminalNodesCount() + statistics.getIntermediateNodesCount() + statistics.getTerminalNodesCount());
+            packedNodes.add(statistics.getPackedNodesCount());
+            ambiguities.add(statistics.getAmbiguousNodesCount());
+        }
+        long allocatedAfter = currentThreadAllocatedBytes();
+        if (call.allocatedBefore >= 0 && allocatedAfter >= 0) {
+            allocatedBytes.add(allocatedAfter - call.allocatedBefore);
+        }
+    }
+
+    // Bytes allocated by the current thread, or -1 if the JVM does not support measuring this.
+    private static long currentThreadAllocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("calls", getCalls());
+        result.put("failures", getFailures());
+        result.put("inputNanos", getInputNanos());
+        result.put("parseNanos", getParseNanos());
+        result.put("treeNanos", getTreeNanos());
+        result.put("descriptors", getDescriptors());
+        result.put("gssNodes", getGssNodes());
+        result.put("gssEdges", getGssEdges());
+        result.put("sppfNodes", getSppfNodes());
+        result.put("packedNodes", getPackedNodes());
+        result.put("ambiguities", getAmbiguities());
+        result.put("treeNodes", getTreeNodes());
+        result.put("allocatedBytes", getAllocatedBytes());
+        return result;
+    }
+
+    // The name of the MXBean is the id, e.g., the hash of the grammar, and a number that is unique in this JVM, since
+    // ids can be the same for different parsers.
+    public synchronized void register(String id) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("util:type=GeneratedParser,name=" + id + ",instance=" + instances.incrementAndGet());
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                name = objectName;
+            }
+        } catch (JMException e) {
+            // Monitoring is optional, parsing works without it.
+        }
+    }
+
+    public synchronized void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // Already unregistered
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getInputNanos() {
+        return inputNanos.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getTreeNanos() {
+        return treeNanos.sum();
+    }
+
+    @Override
+    public long getDescriptors() {
+        return descriptors.sum();
+    }
+
+    @Override
+    public long getGssNodes() {
+        return gssNodes.sum();
+    }
+
+    @Override
+    public long getGssEdges() {
+        return gssEdges.sum();
+    }
+
+    @Override
+    public long getSppfNodes() {
+        return sppfNodes.sum();
+    }
+
+    @Override
+    public long getPackedNodes() {
+        return packedNodes.sum();
+    }
+
+    @Override
+    public long getAmbiguities() {
+        return ambiguities.sum();
+    }
+
+    @Override
+    public long getTreeNodes() {
+        return treeNodes.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+}
@@ -0,0 +1,17 @@
+package util;
+
+public interface ParserStatisticsMXBean {
+    long getCalls();
+    long getFailures();
+    long getInputNanos();
+    long getParseNanos();
+    long getTreeNanos();
+    long getDescriptors();
+    long getGssNodes();
+    long getGssEdges();
+    long getSppfNodes();
+    long getPackedNodes();
+    long getAmbiguities();
+    long getTreeNodes();
+    long getAllocatedBytes();
+}
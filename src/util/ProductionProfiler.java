@@ -0,0 +1,121 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.sppf.IntermediateNode;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.sppf.PackedNode;
+import org.iguana.sppf.SPPFNode;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts the SPPF nodes of a parse per Rascal production, to find the productions that cause most of the work of the
+ * parser, e.g., because of nondeterminism. Iguana creates a packed node per derivation it finds, and an intermediate
+ * node per partially matched production, so these counts follow the descriptors that the parser processed.
+ */
+public class ProductionProfiler {
+
+    public static class Counts {
+        public long nonterminalNodes;
+        public long intermediateNodes;
+        public long packedNodes;
+        public long ambiguities;
+
+        // The nodes created for the production, which orders the report
+        public long getNodes() {
+            return nonterminalNodes + intermediateNodes + packedNodes;
+        }
+    }
+
+    // The nodes without a Rascal production, e.g., the ones that Iguana introduces for regular expressions, are
+    // counted for the production they are part of.
+    public static Map<IConstructor, Counts> profile(NonterminalNode root) {
+        Map<IConstructor, Counts> counts = new HashMap<>();
+        Set<SPPFNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        // The SPPF is as deep as the tree, so it is walked without recursion. The production of a node can be null,
+        // e.g., for the Start rule that Iguana adds for the start symbol, which an ArrayDeque does not allow, so a
+        // node is pushed together with the production of its parent.
+        Deque<Entry> stack = new ArrayDeque<>();
+        stack.push(new Entry(root, getProduction(root)));
+
+        while (!stack.isEmpty()) {
+            Entry entry = stack.pop();
+            SPPFNode node = entry.node;
+            IConstructor parent = entry.prod;
+            if (!visited.add(node)) {
+                continue;
+            }
+
+            IConstructor prod = parent;
+            if (node instanceof NonterminalNode || node instanceof IntermediateNode) {
+                IConstructor own = getProduction(node);
+                prod = own != null ? own : parent;
+                Counts count = counts.computeIfAbsent(prod, p -> new Counts());
+                if (node instanceof NonterminalNode) {
+                    count.nonterminalNodes++;
+                    if (((NonterminalNode) node).isAmbiguous()) {
+                        countAmbiguity(counts, node, prod);
+                    }
+                } else {
+                    count.intermediateNodes++;
+                }
+            } else if (node instanceof PackedNode) {
+                // Each alternative of an ambiguity is a packed node of its own production, which is charged with the
+                // packed node and the nodes below it.
+                IConstructor own = getProduction((PackedNode) node);
+                prod = own != null ? own : parent;
+                counts.computeIfAbsent(prod, p -> new Counts()).packedNodes++;
+            }
+
+            for (int i = 0; i < node.childrenCount(); i++) {
+                stack.push(new Entry(node.getChildAt(i), prod));
+            }
+        }
+        // The root of a parse without a production, e.g., a start symbol, has no counts of its own.
+        counts.remove(null);
+        return counts;
+    }
+
+    private static class Entry {
+        private final SPPFNode node;
+        private final IConstructor prod;
+
+        Entry(SPPFNode node, IConstructor prod) {
+            this.node = node;
+            this.prod = prod;
+        }
+    }
+
+    // An ambiguity counts once for every production among its alternatives, so the report shows all productions
+    // that take part in it, not only the first alternative.
+    private static void countAmbiguity(Map<IConstructor, Counts> counts, SPPFNode node, IConstructor fallback) {
+        Set<IConstructor> prods = new HashSet<>();
+        for (int i = 0; i < node.childrenCount(); i++) {
+            IConstructor prod = getProduction((PackedNode) node.getChildAt(i));
+            prods.add(prod != null ? prod : fallback);
+        }
+        for (IConstructor prod : prods) {
+            counts.computeIfAbsent(prod, p -> new Counts()).ambiguities++;
+        }
+    }
+
+    // The production of a nonterminal or intermediate node is the one of its first packed node, which is the same
+    // for all its packed nodes unless the node is ambiguous.
+    private static IConstructor getProduction(SPPFNode node) {
+        if (node.childrenCount() == 0 || !(node.getChildAt(0) instanceof PackedNode)) {
+            return null;
+        }
+        return getProduction((PackedNode) node.getChildAt(0));
+    }
+
+    private static IConstructor getProduction(PackedNode node) {
+        return (IConstructor) node.getGrammarSlot().getRule().getAttributes().get("prod");
+    }
+}
@@ -13,39 +13,109 @@ import org.iguana.regex.RegularExpression;
 import org.iguana.util.Tuple;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.iguana.utils.string.StringUtil.listToString;
 import static util.IValueUtils.*;
 
 public class RascalGrammarToIguanaGrammarConverter {
 
+    // Literals become terminals instead of nonterminals over their characters.
+    private final boolean literalTerminals;
+    // A layout definition of the longest iteration of a character class becomes a terminal, which Iguana matches
+    // without the GLL machinery, see getRegularLayout.
+    private final boolean fastLayout;
+    // The ranges of a character class are sorted and merged. Only disabled to compare with, e.g., in benchmarks.
+    private final boolean normalizeCharClasses;
+
+    public RascalGrammarToIguanaGrammarConverter() {
+        this(false, false);
+    }
+
+    public RascalGrammarToIguanaGrammarConverter(boolean literalTerminals, boolean fastLayout) {
+        this(literalTerminals, fastLayout, true);
+    }
+
+    public RascalGrammarToIguanaGrammarConverter(boolean literalTerminals, boolean fastLayout, boolean normalizeCharClasses) {
+        this.literalTerminals = literalTerminals;
+        this.fastLayout = fastLayout;
+        this.normalizeCharClasses = normalizeCharClasses;
+    }
+
+    // The options can be set with -Drascal.iguana.literalTerminals=true and -Drascal.iguana.fastLayout=true.
+    public static RascalGrammarToIguanaGrammarConverter fromSystemProperties() {
+        return new RascalGrammarToIguanaGrammarConverter(Boolean.getBoolean("rascal.iguana.literalTerminals"), Boolean.getBoolean("rascal.iguana.fastLayout"));
+    }
+
+    // Distinguishes the grammars converted with different options, e.g., in the grammar cache.
+    public String getVariant() {
+        List<String> options = new ArrayList<>();
+        if (literalTerminals) options.add("literals");
+        if (fastLayout) options.add("layout");
+        if (!normalizeCharClasses) options.add("unnormalized");
+        return String.join("-", options);
+    }
+
     public Grammar convert(IConstructor grammar) {
+        return convert(grammar, true);
+    }
+
+    // Sequential only to compare with, e.g., in tests.
+    Grammar convert(IConstructor grammar, boolean parallel) {
         Grammar.Builder grammarBuilder = new Grammar.Builder();
         IMap definitions = (IMap) grammar.get("definitions");
 
-        Iterator<Map.Entry<IValue, IValue>> entryIterator = definitions.entryIterator();
         Identifier layout = getLayoutDefinition(definitions);
-        ValueVisitor visitor = new ValueVisitor(layout);
+        Map<IValue, IConstructor> literalProductions = literalTerminals ? getLiteralProductions(definitions) : null;
+        ValueVisitor visitor = new ValueVisitor(layout, literalProductions, normalizeCharClasses);
 
+        List<IValue> symbols = new ArrayList<>(definitions.size());
+        List<IValue> values = new ArrayList<>(definitions.size());
+        Iterator<Map.Entry<IValue, IValue>> entryIterator = definitions.entryIterator();
         while (entryIterator.hasNext()) {
             Map.Entry<IValue, IValue> next = entryIterator.next();
-            IValue value = next.getValue();
+            // The rules of the literals that are terminals are not used. Other literals, e.g., with more than one
+            // alternative, are still nonterminals, so their rules are kept.
+            if (literalProductions != null && literalProductions.containsKey(next.getKey())) {
+                continue;
+            }
+            symbols.add(next.getKey());
+            values.add(next.getValue());
+        }
 
+        // The definitions are converted in parallel, but the rules and start symbols are added in the order of the
+        // definitions, so the grammar is the same as the one of a sequential conversion.
+        Rule[] rules = new Rule[values.size()];
+        IntStream indices = IntStream.range(0, values.size());
+        (parallel ? indices.parallel() : indices).forEach(i -> {
             try {
-                Rule rule = (Rule) value.accept(visitor);
-                // Skipped rules, e.g., start rule, are skipped.
-                if (rule != null) {
-                    grammarBuilder.addRule(rule);
-                }
+                rules[i] = (Rule) values.get(i).accept(visitor);
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+        });
+
+        for (Rule rule : rules) {
+            // Skipped rules, e.g., start rule, are skipped.
+            if (rule != null) {
+                grammarBuilder.addRule(rule);
+            }
         }
 
+        List<Start> startSymbols = new ArrayList<>();
+        for (IValue symbol : symbols) {
+            Start start = visitor.starts.get(symbol);
+            if (start != null) {
+                startSymbols.add(start);
+            }
+        }
+
+        Symbol regularLayout = fastLayout ? getRegularLayout(definitions, layout, visitor) : null;
         return grammarBuilder
-            .setStartSymbols(new ArrayList<>(visitor.starts.values()))
-            .setLayout(layout)
+            .setStartSymbols(startSymbols)
+            .setLayout(regularLayout != null ? regularLayout : layout)
             .build();
     }
 
@@ -67,6 +137,114 @@ public class RascalGrammarToIguanaGrammarConverter {
         return layout;
     }
 
+    // Converts the layout definition to a terminal if its tree is determined by the text it matches, and if it only
+    // matches the longest text, as a terminal does: the layout is an iteration of a character class that is not
+    // followed by that class, e.g., layout Whitespace = [\ \t\n\r]* !>> [\ \t\n\r]. Without the restriction, the
+    // layout nonterminal also matches every shorter text, e.g., between nullable symbols. Returns null otherwise.
+    private static Symbol getRegularLayout(IMap definitions, Identifier layout, ValueVisitor visitor) {
+        Iterator<Map.Entry<IValue, IValue>> it = definitions.entryIterator();
+        while (it.hasNext()) {
+            Map.Entry<IValue, IValue> next = it.next();
+            IValue symbol = next.getKey();
+            if (!isLayout(symbol) || !((IString) ((IConstructor) symbol).get(0)).getValue().equals(layout.getName())) {
+                continue;
+            }
+            ISet alternatives = (ISet) ((IConstructor) next.getValue()).get("alternatives");
+            if (alternatives.size() != 1) {
+                return null;
+            }
+            IConstructor prod = (IConstructor) alternatives.iterator().next();
+            if (!prod.getName().equals("prod") || ((IList) prod.get("symbols")).length() != 1) {
+                return null;
+            }
+            IConstructor body = (IConstructor) ((IList) prod.get("symbols")).get(0);
+            if (!body.getName().equals("conditional")) {
+                return null;
+            }
+            IConstructor iteration = (IConstructor) body.get("symbol");
+            if (!iteration.getName().equals("iter") && !iteration.getName().equals("iter-star")) {
+                return null;
+            }
+            IConstructor charClass = (IConstructor) iteration.get("symbol");
+            if (!charClass.getName().equals("char-class")) {
+                return null;
+            }
+            ISet conditions = (ISet) body.get("conditions");
+            boolean longest = false;
+            for (IValue value : conditions) {
+                IConstructor condition = (IConstructor) value;
+                if (!condition.getName().equals("not-follow")) {
+                    return null;
+                }
+                IConstructor follow = (IConstructor) condition.get("symbol");
+                longest |= follow.getName().equals("char-class") && contains(follow, charClass);
+            }
+            if (!longest) {
+                return null;
+            }
+
+            try {
+                RegularExpression regex = ((Terminal) charClass.accept(visitor)).getRegularExpression();
+                SymbolBuilder<? extends Symbol> builder = Terminal.from(iteration.getName().equals("iter") ? org.iguana.regex.Plus.from(regex) : org.iguana.regex.Star.from(regex)).copy();
+                builder.setName(layout.getName());
+                // The builder builds the layout tree from the text the terminal matched, see LexicalShape.
+                builder.addAttribute("layout", prod);
+                for (IValue condition : conditions) {
+                    builder.addPostCondition((Condition) condition.accept(visitor));
+                }
+                return builder.build();
+            } catch (Throwable e) {
+                // Character classes and their conditions are converted as in any other rule, where this does not fail.
+                throw new RuntimeException(e);
+            }
+        }
+        return null;
+    }
+
+    // Whether every character of the inner character class is in the outer one
+    private static boolean contains(IConstructor outer, IConstructor inner) {
+        for (IValue innerValue : (IList) inner.get("ranges")) {
+            IConstructor innerRange = (IConstructor) innerValue;
+            int c = ((IInteger) innerRange.get("begin")).intValue();
+            int end = ((IInteger) innerRange.get("end")).intValue();
+            // The characters from c to end that are not in a range of the outer class yet
+            boolean progress = true;
+            while (c <= end && progress) {
+                progress = false;
+                for (IValue outerValue : (IList) outer.get("ranges")) {
+                    IConstructor outerRange = (IConstructor) outerValue;
+                    int begin = ((IInteger) outerRange.get("begin")).intValue();
+                    int outerEnd = ((IInteger) outerRange.get("end")).intValue();
+                    if (begin <= c && c <= outerEnd) {
+                        c = outerEnd + 1;
+                        progress = true;
+                    }
+                }
+            }
+            if (c <= end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The production of each literal, e.g., prod(lit("if"), [char-class([range(105,105)]), ...], {})
+    private static Map<IValue, IConstructor> getLiteralProductions(IMap definitions) {
+        Map<IValue, IConstructor> productions = new HashMap<>();
+        Iterator<Map.Entry<IValue, IValue>> it = definitions.entryIterator();
+        while (it.hasNext()) {
+            Map.Entry<IValue, IValue> next = it.next();
+            if (isLiteral(next.getKey())) {
+                IConstructor choice = (IConstructor) next.getValue();
+                ISet alternatives = (ISet) choice.get("alternatives");
+                if (alternatives.size() == 1) {
+                    productions.put(next.getKey(), (IConstructor) alternatives.iterator().next());
+                }
+            }
+        }
+        return productions;
+    }
+
     private static boolean isLayout(IValue value) {
         if (!(value instanceof IConstructor)) return false;
         return ((IConstructor) value).getName().equals("layouts");
@@ -75,14 +253,38 @@ public class RascalGrammarToIguanaGrammarConverter {
     static class ValueVisitor implements IValueVisitor<Object, Throwable> {
 
         private final Identifier layout;
-        private final Map<IValue, Start> starts = new HashMap<>();
+        // If not null, the literals with a production here are converted to terminals.
+        private final Map<IValue, IConstructor> literalProductions;
+        private final boolean normalizeCharClasses;
+        // Definitions are visited concurrently, each start symbol by one definition only.
+        private final Map<IValue, Start> starts = new ConcurrentHashMap<>();
+
+        // The same symbols occur in many productions, so each of them is converted once and the Iguana symbol is
+        // shared. Productions and start symbols are not cached, as converting them updates the start symbols.
+        private static final Set<String> SYMBOLS = new HashSet<>(Arrays.asList(
+            "sort", "lex", "layouts", "keywords", "parameterized-sort", "parameterized-lex", "empty", "lit", "alt",
+            "opt", "seq", "iter", "iter-seps", "iter-star", "iter-star-seps", "label", "char-class", "range",
+            "conditional", "follow", "not-follow", "precede", "not-precede", "delete", "begin-of-line", "end-of-line",
+            "except"));
+        private final Map<IConstructor, Object> symbols = new ConcurrentHashMap<>();
+        private final Map<IValue, RegularExpression> regexes = new ConcurrentHashMap<>();
 
         public ValueVisitor() {
             this(null);
         }
 
         public ValueVisitor(Identifier layout) {
+            this(layout, null);
+        }
+
+        public ValueVisitor(Identifier layout, Map<IValue, IConstructor> literalProductions) {
+            this(layout, literalProductions, true);
+        }
+
+        public ValueVisitor(Identifier layout, Map<IValue, IConstructor> literalProductions, boolean normalizeCharClasses) {
             this.layout = layout;
+            this.literalProductions = literalProductions;
+            this.normalizeCharClasses = normalizeCharClasses;
         }
 
         @Override
@@ -171,6 +373,22 @@ public class RascalGrammarToIguanaGrammarConverter {
 
         @Override
         public Object visitConstructor(IConstructor cons) throws Throwable {
+            if (!SYMBOLS.contains(cons.getName())) {
+                return convertConstructor(cons);
+            }
+            Object result = symbols.get(cons);
+            if (result == null) {
+                // Not computeIfAbsent, as converting a symbol converts its children, which updates the map.
+                result = convertConstructor(cons);
+                Object existing = symbols.putIfAbsent(cons, result);
+                if (existing != null) {
+                    result = existing;
+                }
+            }
+            return result;
+        }
+
+        private Object convertConstructor(IConstructor cons) throws Throwable {
             switch (cons.getName()) {
                 case "choice": return convertChoice(cons);
                 case "prod": return convertProd(cons);
@@ -334,10 +552,9 @@ public class RascalGrammarToIguanaGrammarConverter {
             }
 
             if (isStart(cons.get("def"))) {
-                Start start = starts.get(cons.get("def"));
-                assert start != null;
+                assert starts.containsKey(cons.get("def"));
                 // We need to store the start prod definition here for building the parse tree.
-                starts.put(cons.get("def"), start.copy().addAttribute("prod", cons).build());
+                starts.computeIfPresent(cons.get("def"), (def, start) -> start.copy().addAttribute("prod", cons).build());
             }
 
             return sequenceBuilder.build();
@@ -375,8 +592,16 @@ public class RascalGrammarToIguanaGrammarConverter {
         }
 
         // lit(str string)
-        private Nonterminal convertLit(IConstructor cons) throws Throwable {
+        private Symbol convertLit(IConstructor cons) throws Throwable {
             String nonterminalName = (String) cons.get("string").accept(this);
+            IConstructor prod = literalProductions == null ? null : literalProductions.get(cons);
+            if (prod != null) {
+                // A terminal matches the literal at once. The builder creates the tree of the literal from its prod.
+                return Terminal.from(getRegex(cons)).copy()
+                    .setName("\"" + nonterminalName + "\"")
+                    .addAttribute("prod", prod)
+                    .build();
+            }
             return Nonterminal.withName("\"" + nonterminalName + "\"");
         }
 
@@ -480,7 +705,8 @@ public class RascalGrammarToIguanaGrammarConverter {
         // start(Symbol symbol)
         private Nonterminal convertStart(IConstructor cons) throws Throwable {
             Nonterminal nonterminal = (Nonterminal) cons.get("symbol").accept(this);
-            starts.put(cons, new Start.Builder(nonterminal.getName()).addAttribute("definition", cons).build());
+            // The start prod, if already added, is kept.
+            starts.putIfAbsent(cons, new Start.Builder(nonterminal.getName()).addAttribute("definition", cons).build());
             return nonterminal;
         }
 
@@ -494,9 +720,39 @@ public class RascalGrammarToIguanaGrammarConverter {
         // char-class(list[CharRange] ranges)
         private Terminal convertCharClass(IConstructor cons) throws Throwable {
             List<CharRange> ranges = visit(cons, "ranges");
+            if (normalizeCharClasses) {
+                ranges = normalize(ranges);
+            }
+            if (ranges.size() == 1) {
+                return Terminal.from(ranges.get(0));
+            }
             return Terminal.from(org.iguana.regex.Alt.from(ranges));
         }
 
+        // Sorts the ranges and merges the ones that overlap or are adjacent, so a class has one representation, and a
+        // class of one range is a CharRange instead of an Alt. Rascal's char classes are usually normalized already,
+        // so this does not make the common case faster; Iguana compiles the ranges into its own matcher either way.
+        static List<CharRange> normalize(List<CharRange> ranges) {
+            List<CharRange> sorted = new ArrayList<>(ranges);
+            sorted.sort(Comparator.comparingInt(CharRange::getStart));
+            List<CharRange> result = new ArrayList<>(sorted.size());
+            CharRange current = null;
+            for (CharRange range : sorted) {
+                if (current != null && range.getStart() <= current.getEnd() + 1) {
+                    current = CharRange.in(current.getStart(), Math.max(current.getEnd(), range.getEnd()));
+                } else {
+                    if (current != null) {
+                        result.add(current);
+                    }
+                    current = range;
+                }
+            }
+            if (current != null) {
+                result.add(current);
+            }
+            return result;
+        }
+
         // range(int begin, int end)
         private CharRange convertRange(IConstructor cons) throws Throwable {
             Integer start = (Integer) cons.get("begin").accept(this);
@@ -609,6 +865,18 @@ public class RascalGrammarToIguanaGrammarConverter {
         }
 
         private RegularExpression getRegex(IValue value) throws Throwable {
+            RegularExpression regex = regexes.get(value);
+            if (regex == null) {
+                regex = convertRegex(value);
+                RegularExpression existing = regexes.putIfAbsent(value, regex);
+                if (existing != null) {
+                    regex = existing;
+                }
+            }
+            return regex;
+        }
+
+        private RegularExpression convertRegex(IValue value) throws Throwable {
             // String literals are expanded, so here we have to explicitly create a regular expression out of them.
             if (isLiteral(value)) {
                 IString literalValue = (IString) ((IConstructor) value).get("string");
@@ -1,8 +1,10 @@
 package util;
 
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ISetWriter;
 import io.usethesource.vallang.ISourceLocation;
-import io.usethesource.vallang.type.Type;
 import org.iguana.grammar.runtime.RuntimeRule;
 import org.iguana.grammar.symbol.*;
 import org.iguana.parsetree.ParseTreeBuilder;
@@ -12,9 +14,13 @@ import org.iguana.regex.Epsilon;
 import org.iguana.regex.RegularExpression;
 import org.iguana.utils.input.Input;
 import org.rascalmpl.values.IRascalValueFactory;
-import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.exceptions.RuntimeExceptionFactory;
+import org.rascalmpl.exceptions.Throw;
 import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.SymbolAdapter;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 
@@ -25,11 +31,38 @@ public class RascalParseTreeBuilder implements ParseTreeBuilder<ITree> {
     private final IRascalValueFactory vf;
     private final Input input;
     private final ISourceLocation src;
+    private final int offset;
+    private final LineColumnIndex lineColumnIndex;
+    private final TreeCache treeCache;
+    // Chains of nodes with a single child, e.g., injections, have the same extent, and the tree is built bottom-up, so
+    // the nodes of a chain are built one after the other and share the location of the last extent.
+    private int lastLeftExtent = -1;
+    private int lastRightExtent = -1;
+    private ISourceLocation lastLocation;
+    private long nodeCount;
+    private AmbiguityPolicy ambiguityPolicy = AmbiguityPolicy.KEEP;
+    private int ambiguityCount;
+    private ParseLimits.Guard guard;
+    private CompactLexicalTree.Context lexicalContext;
 
     public RascalParseTreeBuilder(IRascalValueFactory vf, Input input, ISourceLocation src) {
+        this(vf, input, src, new TreeCache(vf));
+    }
+
+    // The character and literal trees of the tree cache are shared with other trees built with the same cache.
+    public RascalParseTreeBuilder(IRascalValueFactory vf, Input input, ISourceLocation src, TreeCache treeCache) {
+        this(vf, input, src, 0, LineColumnIndex.of(input), treeCache);
+    }
+
+    // Builds the trees of a region of a larger input. The region starts at offset in the larger input, and the
+    // source locations are computed with the line index of the larger input.
+    public RascalParseTreeBuilder(IRascalValueFactory vf, Input input, ISourceLocation src, int offset, LineColumnIndex lineColumnIndex, TreeCache treeCache) {
         this.vf = vf;
         this.input = input;
         this.src = src;
+        this.offset = offset;
+        this.lineColumnIndex = lineColumnIndex;
+        this.treeCache = treeCache;
     }
 
     @Override
@@ -38,71 +71,91 @@ public class RascalParseTreeBuilder implements ParseTreeBuilder<ITree> {
         if (regex instanceof Epsilon) {
             return null;
         }
+        count();
+        // A layout that was converted to a terminal, whose tree is built from the text the terminal matched.
+        IConstructor layout = (IConstructor) terminal.getAttributes().get("layout");
+        if (layout != null) {
+            return treeCache.layoutShape(layout).build(vf, treeCache, input, src, offset, lineColumnIndex, leftExtent, rightExtent);
+        }
+        // A literal that was converted to a terminal
+        IConstructor prod = (IConstructor) terminal.getAttributes().get("prod");
+        if (prod != null) {
+            return treeCache.literal(prod, input, leftExtent, rightExtent);
+        }
         if (regex instanceof CharRange || regex instanceof Char || regex instanceof org.iguana.regex.Alt<?>) {
-            return vf.character(input.charAt(leftExtent));
+            return treeCache.character(input.charAt(leftExtent));
         }
         throw new RuntimeException("Regex should be a char, char range or char class, but was: " + regex);
     }
 
     @Override
     public ITree nonterminalNode(RuntimeRule rule, List<ITree> children, int leftExtent, int rightExtent) {
+        count();
         IConstructor prod = (IConstructor) rule.getAttributes().get("prod");
         // Literals don't get the source annotation in Rascal.
         if (isLiteral(prod.get("def"))) {
-            return vf.appl(prod, vf.list(children.toArray(ITree[]::new)));
+            return treeCache.literal(prod, children);
         } else {
-            return (ITree) vf.appl(prod, vf.list(children.toArray(ITree[]::new)))
-                .asWithKeywordParameters()
-                .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+            return appl(prod, children, leftExtent, rightExtent);
         }
     }
 
+    // The SPPF is visited bottom-up, so the alternatives do not contain ambiguities themselves, unless they are kept.
     @Override
     public ITree ambiguityNode(Set<ITree> node) {
-        return vf.amb(vf.set(node.toArray(ITree[]::new)));
+        ambiguityCount++;
+        switch (ambiguityPolicy.getKind()) {
+            case FAIL:
+                throw ambiguity(node);
+            case CHOOSE:
+                return choose(node);
+            case LIMIT:
+                if (ambiguityCount > ambiguityPolicy.getLimit()) {
+                    throw ambiguity(node);
+                }
+                break;
+        }
+        count();
+        ISetWriter alternatives = vf.setWriter();
+        alternatives.insertAll(node);
+        return vf.amb(alternatives.done());
     }
 
     @Override
     public ITree starNode(Star symbol, List<ITree> children, int leftExtent, int rightExtent) {
-        return (ITree) vf.appl(getRegularDefinition(symbol), children.toArray(ITree[]::new))
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        count();
+        return appl(getRegularDefinition(symbol), children, leftExtent, rightExtent);
     }
 
     @Override
     public ITree plusNode(Plus symbol, List<ITree> children, int leftExtent, int rightExtent) {
-        return (ITree) vf.appl(getRegularDefinition(symbol), children.toArray(ITree[]::new))
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        count();
+        return appl(getRegularDefinition(symbol), children, leftExtent, rightExtent);
     }
 
     @Override
     public ITree optNode(Opt symbol, ITree child, int leftExtent, int rightExtent) {
-        return (ITree) vf.appl(getRegularDefinition(symbol), new ITree[] { child })
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        count();
+        return appl(getRegularDefinition(symbol), vf.list(child), leftExtent, rightExtent);
     }
 
     @Override
     public ITree altNode(Alt symbol, ITree child, int leftExtent, int rightExtent) {
-        return (ITree) vf.appl(getRegularDefinition(symbol), new ITree[] { child })
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        count();
+        return appl(getRegularDefinition(symbol), vf.list(child), leftExtent, rightExtent);
     }
 
     @Override
     public ITree groupNode(Group symbol, List<ITree> children, int leftExtent, int rightExtent) {
-        return (ITree) vf.appl(getRegularDefinition(symbol), children.toArray(ITree[]::new))
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        count();
+        return appl(getRegularDefinition(symbol), children, leftExtent, rightExtent);
     }
 
     @Override
     public ITree startNode(Start symbol, List<ITree> children, int leftExtent, int rightExtent) {
+        count();
         IConstructor definition = (IConstructor) symbol.getAttributes().get("prod");
-        return (ITree) vf.appl(definition, children.toArray(ITree[]::new))
-            .asWithKeywordParameters()
-            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
+        return appl(definition, children, leftExtent, rightExtent);
     }
 
     @Override
@@ -110,20 +163,92 @@ public class RascalParseTreeBuilder implements ParseTreeBuilder<ITree> {
         throw new UnsupportedOperationException();
     }
 
+    public void setAmbiguityPolicy(AmbiguityPolicy ambiguityPolicy) {
+        this.ambiguityPolicy = ambiguityPolicy;
+    }
+
+    public AmbiguityPolicy getAmbiguityPolicy() {
+        return ambiguityPolicy;
+    }
+
+    // The limits of the parse, which are checked while the tree is built, or null.
+    public void setGuard(ParseLimits.Guard guard) {
+        this.guard = guard;
+    }
+
+    // A lexical tree that is built from its production and extent when it is used, instead of one tree per character
+    // now. The compact tree only refers to the input, which is shared by all trees of the input.
+    public ITree compactLexicalNode(LexicalShape shape, int leftExtent, int rightExtent) {
+        count();
+        if (lexicalContext == null) {
+            lexicalContext = new CompactLexicalTree.Context(vf, treeCache, input, src, offset, lineColumnIndex);
+        }
+        return new CompactLexicalTree(shape, lexicalContext, leftExtent, rightExtent);
+    }
+
+    public LexicalShape getLexicalShape(IConstructor prod) {
+        return treeCache.lexicalShape(prod);
+    }
+
+    private void count() {
+        nodeCount++;
+        if (guard != null && (nodeCount & 0x3FF) == 0) {
+            guard.check(-1);
+            guard.checkNodes(nodeCount, -1);
+        }
+    }
+
+    // Chooses from alternatives that were already built, which RascalSPPFToParseTreeVisitor only leaves to the
+    // builder if they are not all Rascal productions. As there, the choice is by the hash of the production, and then
+    // of the arguments, so it does not depend on the order of the alternatives in the SPPF.
+    private static ITree choose(Set<ITree> alternatives) {
+        return alternatives.stream()
+            .min(Comparator.comparingInt((ITree tree) -> TreeAdapter.isAppl(tree) ? TreeAdapter.getProduction(tree).hashCode() : 0)
+                .thenComparingInt(tree -> TreeAdapter.isAppl(tree) ? TreeAdapter.getArgs(tree).hashCode() : tree.hashCode()))
+            .get();
+    }
+
+    private Throw ambiguity(Set<ITree> alternatives) {
+        ITree alternative = alternatives.iterator().next();
+        ISourceLocation location = TreeAdapter.getLocation(alternative);
+        String nonterminal = SymbolAdapter.toString(TreeAdapter.getType(alternative), false);
+        return RuntimeExceptionFactory.ambiguity(location == null ? src : location, vf.string(nonterminal), vf.string(TreeAdapter.yield(alternative)));
+    }
+
+    // The location of an extent, without the location of the last extent, so lazy trees can use it from any thread.
+    public ISourceLocation getLocation(int leftExtent, int rightExtent) {
+        return lineColumnIndex.getSourceLocation(vf, src, offset + leftExtent, offset + rightExtent);
+    }
+
+    // The number of tree nodes built so far
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
     private IConstructor getRegularDefinition(Symbol symbol) {
-        IConstructor definition = (IConstructor) symbol.getAttributes().get("definition");
-        Type regular = RascalValueFactory.Production_Regular;
-        return vf.constructor(regular, definition);
+        return treeCache.regular((IConstructor) symbol.getAttributes().get("definition"));
+    }
+
+    // The children are appended to the list of arguments directly, without copying them to an array first.
+    private ITree appl(IConstructor prod, List<ITree> children, int leftExtent, int rightExtent) {
+        IListWriter args = vf.listWriter();
+        args.appendAll(children);
+        return appl(prod, args.done(), leftExtent, rightExtent);
+    }
+
+    private ITree appl(IConstructor prod, IList args, int leftExtent, int rightExtent) {
+        return (ITree) vf.appl(prod, args)
+            .asWithKeywordParameters()
+            .setParameter("src", getSourceLocation(leftExtent, rightExtent));
     }
 
     private ISourceLocation getSourceLocation(int leftExtent, int rightExtent) {
-        int beginLine = input.getLineNumber(leftExtent);
-        int endLine = input.getLineNumber(rightExtent);
-        // In Rascal columns start from 0, while in Iguana, they start from 1, that's why we decrement the returned
-        // column number from iguana by 1.
-        int beginColumn = input.getColumnNumber(leftExtent) - 1;
-        int endColumn = input.getColumnNumber(rightExtent) - 1;
-        return vf.sourceLocation(src, leftExtent, rightExtent - leftExtent, beginLine, endLine, beginColumn, endColumn);
+        if (leftExtent != lastLeftExtent || rightExtent != lastRightExtent) {
+            lastLocation = getLocation(leftExtent, rightExtent);
+            lastLeftExtent = leftExtent;
+            lastRightExtent = rightExtent;
+        }
+        return lastLocation;
     }
 
 }
@@ -0,0 +1,97 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.result.ParserResultOps;
+import org.iguana.sppf.IntermediateNode;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.sppf.PackedNode;
+import org.iguana.sppf.SPPFNode;
+import org.iguana.sppf.TerminalNode;
+import org.iguana.traversal.DefaultSPPFToParseTreeVisitor;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Converts the SPPF to a parse tree with a RascalParseTreeBuilder. If the ambiguity policy chooses an alternative, it
+ * is chosen from the packed nodes of the ambiguous node, so only the chosen alternative is built.
+ */
+public class RascalSPPFToParseTreeVisitor extends DefaultSPPFToParseTreeVisitor<ITree> {
+
+    // The production, and for derivations of the same production, the pivot: cheap to compute, and it does not
+    // depend on the order of the packed nodes in the SPPF.
+    private static final Comparator<PackedNode> CHOICE = Comparator
+        .comparingInt((PackedNode packed) -> getProduction(packed).hashCode())
+        .thenComparingInt(PackedNode::getPivot);
+
+    protected final RascalParseTreeBuilder parseTreeBuilder;
+
+    public RascalSPPFToParseTreeVisitor(RascalParseTreeBuilder parseTreeBuilder, Input input) {
+        super(parseTreeBuilder, input, false, new ParserResultOps());
+        this.parseTreeBuilder = parseTreeBuilder;
+    }
+
+    @Override
+    public ITree visit(NonterminalNode node) {
+        if (node.isAmbiguous() && parseTreeBuilder.getAmbiguityPolicy().getKind() == AmbiguityPolicy.Kind.CHOOSE) {
+            PackedNode chosen = choose(node);
+            if (chosen != null) {
+                List<SPPFNode> derivation = new ArrayList<>();
+                if (addChildren(chosen, derivation)) {
+                    List<ITree> children = new ArrayList<>(derivation.size());
+                    for (SPPFNode child : derivation) {
+                        ITree tree = child.accept(this);
+                        if (tree != null) {
+                            children.add(tree);
+                        }
+                    }
+                    return parseTreeBuilder.nonterminalNode(chosen.getGrammarSlot().getRule(), children, node.getLeftExtent(), node.getRightExtent());
+                }
+            }
+        }
+        return super.visit(node);
+    }
+
+    // The chosen packed node, or null if an alternative is not a Rascal production, e.g., of a regular expression, in
+    // which case the builder chooses from the built alternatives.
+    private static PackedNode choose(SPPFNode node) {
+        PackedNode chosen = null;
+        for (int i = 0; i < node.childrenCount(); i++) {
+            PackedNode packed = (PackedNode) node.getChildAt(i);
+            if (getProduction(packed) == null) {
+                return null;
+            }
+            if (chosen == null || CHOICE.compare(packed, chosen) < 0) {
+                chosen = packed;
+            }
+        }
+        return chosen;
+    }
+
+    // Adds the nodes of the symbols of the derivation, through the intermediate nodes of its partial derivations.
+    // Returns false if the derivation has a node that the default visitor flattens into its parent, and which is
+    // therefore left to the default visitor.
+    private static boolean addChildren(PackedNode packed, List<SPPFNode> children) {
+        for (int i = 0; i < packed.childrenCount(); i++) {
+            SPPFNode child = packed.getChildAt(i);
+            if (child instanceof IntermediateNode) {
+                PackedNode partial = child.childrenCount() == 1 ? (PackedNode) child.getChildAt(0) : choose(child);
+                if (partial == null || !addChildren(partial, children)) {
+                    return false;
+                }
+            } else if (child instanceof TerminalNode || (child instanceof NonterminalNode && LazySPPFToParseTreeVisitor.getProduction((NonterminalNode) child) != null)) {
+                children.add(child);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IConstructor getProduction(PackedNode packed) {
+        return (IConstructor) packed.getGrammarSlot().getRule().getAttributes().get("prod");
+    }
+}
@@ -0,0 +1,98 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IListWriter;
+import org.iguana.utils.input.Input;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trees that are shared by all parse trees of a parser. Character trees are the same for each occurrence of the
+ * character, and so are the trees of literals, as they have no source location. The shapes of lexical productions are
+ * computed once per production.
+ */
+public class TreeCache {
+
+    private final IRascalValueFactory vf;
+    private final ITree[] ascii = new ITree[128];
+    private final Map<Integer, ITree> characters = new ConcurrentHashMap<>();
+    // A literal production has exactly one tree, as it defines the characters of the literal.
+    private final Map<IConstructor, ITree> literals = new ConcurrentHashMap<>();
+    private final Map<IConstructor, IConstructor> regulars = new ConcurrentHashMap<>();
+    private final Map<IConstructor, Optional<LexicalShape>> lexicalShapes = new ConcurrentHashMap<>();
+    private final Map<IConstructor, LexicalShape> layoutShapes = new ConcurrentHashMap<>();
+
+    public TreeCache(IRascalValueFactory vf) {
+        this.vf = vf;
+        for (int c = 0; c < ascii.length; c++) {
+            ascii[c] = vf.character(c);
+        }
+    }
+
+    public ITree character(int c) {
+        if (c < ascii.length) {
+            return ascii[c];
+        }
+        return characters.computeIfAbsent(c, vf::character);
+    }
+
+    public ITree literal(IConstructor prod, List<ITree> children) {
+        ITree tree = literals.get(prod);
+        if (tree == null) {
+            tree = literals.computeIfAbsent(prod, p -> {
+                IListWriter args = vf.listWriter();
+                args.appendAll(children);
+                return vf.appl(p, args.done());
+            });
+        }
+        return tree;
+    }
+
+    // The tree of a literal that was matched as a terminal. The character trees are only built for the first one.
+    public ITree literal(IConstructor prod, Input input, int leftExtent, int rightExtent) {
+        ITree tree = literals.get(prod);
+        if (tree == null) {
+            tree = literals.computeIfAbsent(prod, p -> {
+                IListWriter args = vf.listWriter();
+                for (int i = leftExtent; i < rightExtent; i++) {
+                    args.append(character(input.charAt(i)));
+                }
+                return vf.appl(p, args.done());
+            });
+        }
+        return tree;
+    }
+
+    // The regular(def) production of the trees of a regular symbol
+    public IConstructor regular(IConstructor definition) {
+        IConstructor regular = regulars.get(definition);
+        if (regular == null) {
+            regular = regulars.computeIfAbsent(definition, d -> vf.constructor(RascalValueFactory.Production_Regular, d));
+        }
+        return regular;
+    }
+
+    // The shape of a lexical production, or null if its tree is not determined by its extent
+    public LexicalShape lexicalShape(IConstructor prod) {
+        Optional<LexicalShape> shape = lexicalShapes.get(prod);
+        if (shape == null) {
+            shape = lexicalShapes.computeIfAbsent(prod, p -> Optional.ofNullable(LexicalShape.of(vf, p)));
+        }
+        return shape.orElse(null);
+    }
+
+    // The shape of a layout production that the converter made a terminal, which always has one.
+    public LexicalShape layoutShape(IConstructor prod) {
+        LexicalShape shape = layoutShapes.get(prod);
+        if (shape == null) {
+            shape = layoutShapes.computeIfAbsent(prod, p -> LexicalShape.ofLayout(vf, p));
+        }
+        return shape;
+    }
+}
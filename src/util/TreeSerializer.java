@@ -0,0 +1,345 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IInteger;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.io.binary.stream.IValueInputStream;
+import io.usethesource.vallang.io.binary.stream.IValueOutputStream;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeStore;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for parse trees. Productions, symbols and the top location are stored once in a table, and
+ * the trees refer to them by index. The source location of a tree is delta-encoded from the location of its parent,
+ * and trees without a source location, e.g., literals, are stored once and referred to afterwards. Only the src
+ * keyword parameter of trees is stored.
+ */
+public class TreeSerializer {
+
+    private static final int VERSION = 1;
+
+    private static final int APPL = 0;
+    private static final int APPL_LOC = 1;
+    private static final int APPL_TABLE_LOC = 2;
+    private static final int AMB = 3;
+    private static final int CHAR = 4;
+    private static final int CYCLE = 5;
+    private static final int SHARED = 6;
+
+    private final IRascalValueFactory vf;
+
+    public TreeSerializer(IRascalValueFactory vf) {
+        this.vf = vf;
+    }
+
+    public void write(ITree tree, OutputStream out) throws IOException {
+        TreeWriter writer = new TreeWriter();
+        ISourceLocation location = TreeAdapter.getLocation(tree);
+        writer.top = location == null ? null : location.top();
+        writer.varint(writer.index(writer.top == null ? vf.bool(false) : writer.top));
+        writer.write(tree, 0, 1);
+
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        IListWriter table = vf.listWriter();
+        table.appendAll(writer.values);
+        try (IValueOutputStream valueOut = new IValueOutputStream(tableBytes, vf, IValueOutputStream.CompressionRate.Normal)) {
+            valueOut.write(table.done());
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(VERSION);
+        data.writeInt(tableBytes.size());
+        tableBytes.writeTo(data);
+        data.writeInt(writer.bytes.size());
+        writer.bytes.writeTo(data);
+        data.flush();
+    }
+
+    // Reads a tree written by write. If base is not null, the source locations are relative to base instead of to the
+    // location the tree was parsed from, e.g., when the file has moved since. A file that was not written by write,
+    // e.g., a truncated one, is reported as an IOException.
+    public ITree read(InputStream in, ISourceLocation base) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != VERSION) {
+            throw new IOException("Unsupported parse tree version");
+        }
+        byte[] table = readBytes(data);
+        IValue values;
+        try (IValueInputStream valueIn = new IValueInputStream(new ByteArrayInputStream(table), vf, () -> new TypeStore(RascalValueFactory.getStore()))) {
+            values = valueIn.read();
+        }
+        if (!(values instanceof IList)) {
+            throw corrupt();
+        }
+        byte[] bytes = readBytes(data);
+
+        TreeReader reader = new TreeReader((IList) values, bytes);
+        IValue top = reader.value(reader.varint(), IValue.class);
+        reader.top = base != null ? base : top instanceof ISourceLocation ? (ISourceLocation) top : null;
+        return reader.read(0, 1);
+    }
+
+    // A length from the stream is not trusted: the bytes are read in blocks, so a corrupt length ends with an
+    // EOFException at the end of the stream instead of allocating the length at once.
+    private static byte[] readBytes(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            throw corrupt();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, 64 * 1024));
+        byte[] block = new byte[Math.min(length, 64 * 1024)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = data.read(block, 0, Math.min(remaining, block.length));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            bytes.write(block, 0, read);
+            remaining -= read;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static IOException corrupt() {
+        return new IOException("corrupt tree file");
+    }
+
+    private class TreeWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<IValue> values = new ArrayList<>();
+        private final Map<IValue, Integer> indices = new HashMap<>();
+        private final Map<ITree, Integer> shared = new HashMap<>();
+        private ISourceLocation top;
+
+        int index(IValue value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indices.put(value, index);
+            }
+            return index;
+        }
+
+        // The offset and begin line of the parent are the base of the deltas.
+        void write(ITree tree, int parentOffset, int parentLine) {
+            if (TreeAdapter.isChar(tree)) {
+                varint(CHAR);
+                varint(TreeAdapter.getCharacter(tree));
+                return;
+            }
+            if (TreeAdapter.isCycle(tree)) {
+                varint(CYCLE);
+                varint(index(tree.get(0)));
+                varint(((IInteger) tree.get(1)).intValue());
+                return;
+            }
+            if (TreeAdapter.isAmb(tree)) {
+                varint(AMB);
+                varint(TreeAdapter.getAlternatives(tree).size());
+                for (IValue alternative : TreeAdapter.getAlternatives(tree)) {
+                    write((ITree) alternative, parentOffset, parentLine);
+                }
+                return;
+            }
+
+            ISourceLocation location = TreeAdapter.getLocation(tree);
+            if (location == null) {
+                Integer index = shared.get(tree);
+                if (index != null) {
+                    varint(SHARED);
+                    varint(index);
+                    return;
+                }
+                varint(APPL);
+                varint(index(TreeAdapter.getProduction(tree)));
+                writeArgs(tree, parentOffset, parentLine);
+                // Numbered in the order they are completed, which is the order the reader completes them in.
+                shared.put(tree, shared.size());
+                return;
+            }
+
+            if (!location.hasLineColumn() || !location.top().equals(top)) {
+                varint(APPL_TABLE_LOC);
+                varint(index(TreeAdapter.getProduction(tree)));
+                varint(index(location));
+                writeArgs(tree, parentOffset, parentLine);
+                return;
+            }
+
+            varint(APPL_LOC);
+            varint(index(TreeAdapter.getProduction(tree)));
+            signedVarint(location.getOffset() - parentOffset);
+            varint(location.getLength());
+            signedVarint(location.getBeginLine() - parentLine);
+            varint(location.getBeginColumn());
+            varint(location.getEndLine() - location.getBeginLine());
+            varint(location.getEndColumn());
+            writeArgs(tree, location.getOffset(), location.getBeginLine());
+        }
+
+        void writeArgs(ITree tree, int offset, int line) {
+            IList args = TreeAdapter.getArgs(tree);
+            varint(args.length());
+            for (IValue arg : args) {
+                write((ITree) arg, offset, line);
+            }
+        }
+
+        void varint(int value) {
+            while ((value & ~0x7F) != 0) {
+                bytes.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write(value);
+        }
+
+        void signedVarint(int value) {
+            varint((value << 1) ^ (value >> 31));
+        }
+    }
+
+    private class TreeReader {
+        private final IList values;
+        private final byte[] bytes;
+        private final List<ITree> shared = new ArrayList<>();
+        private int position;
+        private ISourceLocation top;
+
+        TreeReader(IList values, byte[] bytes) {
+            this.values = values;
+            this.bytes = bytes;
+        }
+
+        ITree read(int parentOffset, int parentLine) throws IOException {
+            int tag = varint();
+            switch (tag) {
+                case CHAR: {
+                    int c = varint();
+                    if (c < 0 || c > Character.MAX_CODE_POINT) {
+                        throw corrupt();
+                    }
+                    return vf.character(c);
+                }
+                case CYCLE:
+                    return vf.cycle(constructor(varint(), RascalValueFactory.Symbol), varint());
+                case AMB: {
+                    int count = varint();
+                    ISetWriter alternatives = vf.setWriter();
+                    for (int i = 0; i < count; i++) {
+                        alternatives.insert(read(parentOffset, parentLine));
+                    }
+                    return vf.amb(alternatives.done());
+                }
+                case SHARED: {
+                    int index = varint();
+                    if (index < 0 || index >= shared.size()) {
+                        throw corrupt();
+                    }
+                    return shared.get(index);
+                }
+                case APPL: {
+                    IConstructor prod = constructor(varint(), RascalValueFactory.Production);
+                    ITree tree = vf.appl(prod, readArgs(parentOffset, parentLine));
+                    shared.add(tree);
+                    return tree;
+                }
+                case APPL_TABLE_LOC: {
+                    IConstructor prod = constructor(varint(), RascalValueFactory.Production);
+                    ISourceLocation location = value(varint(), ISourceLocation.class);
+                    return appl(prod, readArgs(parentOffset, parentLine), location);
+                }
+                case APPL_LOC: {
+                    IConstructor prod = constructor(varint(), RascalValueFactory.Production);
+                    int offset = parentOffset + signedVarint();
+                    int length = varint();
+                    int beginLine = parentLine + signedVarint();
+                    int beginColumn = varint();
+                    int endLine = beginLine + varint();
+                    int endColumn = varint();
+                    if (top == null || offset < 0 || length < 0 || beginLine < 1 || endLine < beginLine || beginColumn < 0 || endColumn < 0) {
+                        throw corrupt();
+                    }
+                    ISourceLocation location = vf.sourceLocation(top, offset, length, beginLine, endLine, beginColumn, endColumn);
+                    return appl(prod, readArgs(offset, beginLine), location);
+                }
+                default:
+                    throw new IOException("Unknown tree tag: " + tag);
+            }
+        }
+
+        // The value at the index of the table, which has to be of the type the tree expects there
+        <T extends IValue> T value(int index, Class<T> type) throws IOException {
+            if (index < 0 || index >= values.length()) {
+                throw corrupt();
+            }
+            IValue value = values.get(index);
+            if (!type.isInstance(value)) {
+                throw corrupt();
+            }
+            return type.cast(value);
+        }
+
+        // A production or symbol from the table
+        IConstructor constructor(int index, Type type) throws IOException {
+            IConstructor value = value(index, IConstructor.class);
+            if (!value.getType().isSubtypeOf(type)) {
+                throw corrupt();
+            }
+            return value;
+        }
+
+        IList readArgs(int offset, int line) throws IOException {
+            int count = varint();
+            IListWriter args = vf.listWriter();
+            for (int i = 0; i < count; i++) {
+                args.append(read(offset, line));
+            }
+            return args.done();
+        }
+
+        ITree appl(IConstructor prod, IList args, ISourceLocation location) {
+            return (ITree) vf.appl(prod, args)
+                .asWithKeywordParameters()
+                .setParameter("src", location);
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                if (position == bytes.length) {
+                    throw new EOFException();
+                }
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+                if (shift > 28) {
+                    throw corrupt();
+                }
+            }
+        }
+
+        int signedVarint() throws IOException {
+            int value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
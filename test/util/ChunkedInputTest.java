@@ -0,0 +1,74 @@
+package util;
+
+import org.iguana.utils.input.Input;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ChunkedInputTest {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final URI URI = java.net.URI.create("unknown:///");
+
+    @Test
+    public void latin1Chunks() throws IOException {
+        assertSameInput(lines(3 * CHUNK_SIZE + 17, 'a'));
+    }
+
+    @Test
+    public void inputOfExactlyOneChunk() throws IOException {
+        assertSameInput(lines(CHUNK_SIZE, 'b'));
+    }
+
+    // The reader reads a chunk of chars at a time, so a pair at the end of a read is decoded with the next read.
+    @Test
+    public void surrogatePairOverChunks() throws IOException {
+        String emoji = new String(Character.toChars(0x1F600));
+        assertSameInput(lines(CHUNK_SIZE - 1, 'c') + emoji + lines(CHUNK_SIZE, 'd'));
+        assertSameInput(lines(CHUNK_SIZE - 2, 'e') + emoji + emoji + lines(CHUNK_SIZE, 'f'));
+    }
+
+    // A chunk is widened at its first character outside of Latin-1, after which the earlier characters are ints.
+    @Test
+    public void widenedChunks() throws IOException {
+        assertSameInput(lines(CHUNK_SIZE + 1000, 'g') + "λ" + lines(CHUNK_SIZE, 'é'));
+        assertSameInput("λ" + lines(2 * CHUNK_SIZE, 'h'));
+    }
+
+    @Test
+    public void lineIndexIsShared() throws IOException {
+        ChunkedInput input = ChunkedInput.fromReader(new StringReader(lines(CHUNK_SIZE + 1, 'i')), URI);
+        assertSame(LineColumnIndex.of(input), LineColumnIndex.of(input));
+    }
+
+    private static void assertSameInput(String string) throws IOException {
+        Input expected = Input.fromString(string);
+        Input actual = ChunkedInput.fromReader(new StringReader(string), URI);
+        // The length includes EOF.
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals("charAt(" + i + ")", expected.charAt(i), actual.charAt(i));
+        }
+        for (int i = CHUNK_SIZE; i < expected.length(); i += CHUNK_SIZE) {
+            assertEquals(expected.subString(i - 10, i + 1), actual.subString(i - 10, i + 1));
+            assertEquals(expected.getLineNumber(i), actual.getLineNumber(i));
+            assertEquals(expected.getColumnNumber(i), actual.getColumnNumber(i));
+        }
+        assertEquals(expected.getLineNumber(expected.length() - 1), actual.getLineNumber(actual.length() - 1));
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+    }
+
+    // Lines of the character, with a code point count of length
+    private static String lines(int length, char c) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(i % 80 == 79 ? '\n' : c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.grammar.Grammar;
+import org.iguana.parser.IguanaParser;
+import org.iguana.sppf.NonterminalNode;
+import org.iguana.utils.input.Input;
+import org.junit.Test;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.uri.URIUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactLexicalTest {
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+
+    // A compact lexical tree replaces the character trees, argument lists and source locations of a lexical, and the
+    // visits of its SPPF nodes, so building a tree of many identifiers allocates less.
+    @Test
+    public void compactLexicalsAllocateLess() {
+        IConstructor grammar = TestRascal.picoGrammar();
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+        Input input = Input.fromString(identifiers(2000));
+        IguanaParser parser = new IguanaParser(converted);
+        parser.parse(input, GeneratedParser.getStartSymbol(TestRascal.picoStart()));
+        NonterminalNode sppf = parser.getSPPF();
+        TreeCache treeCache = new TreeCache(vf);
+
+        Supplier<ITree> eager = () -> sppf.accept(new RascalSPPFToParseTreeVisitor(new RascalParseTreeBuilder(vf, input, URIUtil.rootLocation("test"), treeCache), input));
+        Supplier<ITree> compact = () -> sppf.accept(new CompactLexicalSPPFToParseTreeVisitor(new RascalParseTreeBuilder(vf, input, URIUtil.rootLocation("test"), treeCache), input));
+
+        assertEquals(compact.get(), eager.get());
+        long eagerBytes = minimumAllocatedBytes(eager);
+        long compactBytes = minimumAllocatedBytes(compact);
+        assertTrue("compact: " + compactBytes + " bytes, eager: " + eagerBytes + " bytes", compactBytes < eagerBytes);
+    }
+
+    // The minimum over a few runs, after the caches are filled and the code is warm
+    private static long minimumAllocatedBytes(Supplier<ITree> builder) {
+        long minimum = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            builder.get();
+            minimum = Math.min(minimum, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+        return minimum;
+    }
+
+    // begin declare identifier0 : natural; identifier0 := identifier1; ... end
+    private static String identifiers(int statements) {
+        StringBuilder program = new StringBuilder("begin declare identifier0 : natural;\n");
+        for (int i = 0; i < statements; i++) {
+            program.append(i == 0 ? "  " : ";\n  ").append("identifier").append(i).append(" := identifier").append(i + 1);
+        }
+        return program.append("\nend").toString();
+    }
+}
@@ -0,0 +1,78 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import org.iguana.grammar.Grammar;
+import org.iguana.grammar.symbol.Terminal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rascalmpl.uri.URIUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The options of RascalGrammarToIguanaGrammarConverter change the Iguana grammar, but not the trees.
+ */
+public class ConverterOptionsTest {
+
+    private static final String[] EXAMPLES = { "fac.pico", "assoc.pico", "prio.pico" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void literalTerminals() throws Exception {
+        withOption("rascal.iguana.literalTerminals", () -> {
+            for (String example : EXAMPLES) {
+                assertTrue(example, TestRascal.picoSameTree(example));
+            }
+        });
+    }
+
+    // A literal with more than one alternative is not a terminal, so its rule is kept.
+    @Test
+    public void literalsWithAlternativesKeepTheirRules() {
+        IConstructor grammar = (IConstructor) TestRascal.eval("{ g = expand(#start[Program]); d = g.definitions; "
+            + "d[lit(\"begin\")] = choice(lit(\"begin\"), d[lit(\"begin\")].alternatives + {prod(lit(\"begin\"), [\\char-class([range(66,66)])], {})}); "
+            + "type(g.symbol, d); }");
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter(true, false).convert(grammar);
+        assertTrue(converted.getRules().stream().anyMatch(rule -> rule.getHead().getName().equals("\"begin\"")));
+        assertFalse(converted.getRules().stream().anyMatch(rule -> rule.getHead().getName().equals("\"end\"")));
+    }
+
+    @Test
+    public void fastLayout() throws Exception {
+        IConstructor grammar = (IConstructor) TestRascal.eval("expand(#start[Sum])");
+        assertTrue(new RascalGrammarToIguanaGrammarConverter(false, true).convert(grammar).getLayout() instanceof Terminal);
+
+        Path file = folder.newFile("sum.txt").toPath();
+        Files.write(file, "  a + bc\n+d   +\t\te \n\n".getBytes(StandardCharsets.UTF_8));
+        withOption("rascal.iguana.fastLayout", () -> assertTrue(TestRascal.sameTree("#start[Sum]", URIUtil.createFileLocation(file.toString()))));
+    }
+
+    // The layout of Pico has comments that end at the end of a line, which is not an iteration of a character class.
+    @Test
+    public void picoLayoutIsNotRegular() {
+        assertFalse(new RascalGrammarToIguanaGrammarConverter(false, true).convert(TestRascal.picoGrammar()).getLayout() instanceof Terminal);
+    }
+
+    // The parsers are cached per variant of the conversion, so the parsers of the default conversion, which other
+    // tests may have generated, are not used here.
+    private static void withOption(String option, ThrowingRunnable test) throws Exception {
+        System.setProperty(option, "true");
+        try {
+            test.run();
+        } finally {
+            System.clearProperty(option);
+        }
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
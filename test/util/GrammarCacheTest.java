@@ -0,0 +1,72 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import org.iguana.grammar.Grammar;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rascalmpl.values.IRascalValueFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GrammarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+
+    @Test
+    public void grammarRoundTrips() throws Exception {
+        IConstructor grammar = TestRascal.picoGrammar();
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+        GrammarCache cache = new GrammarCache(vf, folder.getRoot().toPath());
+        cache.get(grammar, g -> converted);
+        Grammar read = cache.get(grammar, g -> {
+            throw new AssertionError("The grammar was not read from the cache");
+        });
+
+        assertEquals(converted.toString(), read.toString());
+        IConstructor start = TestRascal.picoStart();
+        ISourceLocation file = TestRascal.picoExample("fac.pico");
+        assertEquals(new GeneratedParser(vf, converted).parse(start, InputUtils.fromLocation(file), file),
+            new GeneratedParser(vf, read).parse(start, InputUtils.fromLocation(file), file));
+    }
+
+    @Test
+    public void corruptFilesAreReplaced() throws Exception {
+        IConstructor grammar = TestRascal.picoGrammar();
+        Grammar converted = new RascalGrammarToIguanaGrammarConverter().convert(grammar);
+        GrammarCache cache = new GrammarCache(vf, folder.getRoot().toPath());
+        cache.get(grammar, g -> converted);
+        Path file;
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            file = files.filter(f -> f.toString().endsWith(".grammar")).findFirst().get();
+        }
+        Files.write(file, new byte[] { 0, 0, 0, 1, 127, 127, 127, 127 });
+
+        AtomicBoolean reconverted = new AtomicBoolean();
+        cache.get(grammar, g -> {
+            reconverted.set(true);
+            return converted;
+        });
+        assertTrue(reconverted.get());
+    }
+
+    @Test
+    public void sharedDirectoriesAreNotUsed() throws Exception {
+        Path shared = folder.newFolder("shared").toPath();
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertFalse(CacheDirectory.createPrivate(shared));
+        assertTrue(CacheDirectory.createPrivate(folder.getRoot().toPath().resolve("private")));
+    }
+}
@@ -0,0 +1,69 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.ISourceLocation;
+import org.junit.Test;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.RascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LazyTreeTest {
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+
+    private final GeneratedParser parser = new GeneratedParser(vf, new RascalGrammarToIguanaGrammarConverter().convert(TestRascal.picoGrammar()));
+    private final IConstructor start = TestRascal.picoStart();
+    private final ISourceLocation file = TestRascal.picoExample("fac.pico");
+
+    private ITree parse(boolean lazy) {
+        return parser.parse(start, InputUtils.fromLocation(file), file, new ParseOptions(lazy, false, AmbiguityPolicy.KEEP, ParseLimits.NONE));
+    }
+
+    @Test
+    public void subtreesAreBuiltOnFirstUse() {
+        ITree eager = (ITree) TreeAdapter.getArgs(parse(false)).get(1);
+        IValue program = TreeAdapter.getArgs(parse(true)).get(1);
+        assertTrue(program instanceof LazyTree);
+        LazyTree lazy = (LazyTree) program;
+
+        assertEquals(RascalValueFactory.Tree, lazy.getType());
+        assertEquals(TreeAdapter.getProduction(eager), TreeAdapter.getProduction(lazy));
+        assertEquals(TreeAdapter.getLocation(eager), TreeAdapter.getLocation(lazy));
+        assertFalse(lazy.isBuilt());
+
+        // Building the tree builds one level, the children are built when they are used.
+        for (IValue child : TreeAdapter.getArgs(lazy)) {
+            if (child instanceof LazyTree) {
+                assertFalse(((LazyTree) child).isBuilt());
+            }
+        }
+        assertTrue(lazy.isBuilt());
+    }
+
+    @Test
+    public void lazyTreesEqualEagerTrees() {
+        ITree lazy = parse(true);
+        ITree eager = parse(false);
+        assertTrue(LazyTree.equal(eager, lazy));
+        assertTrue(LazyTree.equal(lazy, eager));
+        assertEquals(lazy.hashCode(), eager.hashCode());
+    }
+
+    @Test
+    public void materializedTreesEqualEagerTrees() {
+        ITree eager = parse(false);
+        ITree materialized = LazyTree.materialize(vf, parse(true));
+        assertFalse(materialized instanceof LazyTree);
+        assertEquals(eager, materialized);
+        assertEquals(materialized, eager);
+        assertTrue(Set.of(eager).contains(materialized));
+    }
+}
@@ -0,0 +1,88 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IString;
+import org.iguana.utils.input.Input;
+import org.junit.Test;
+import org.rascalmpl.exceptions.Throw;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The limits are checked by GuardedInput while Iguana parses, and by the tree builder while the tree is built. The
+ * input "a+a+...+a" of util::PicoTest's Ambiguous grammar has a number of derivations that grows exponentially with
+ * its length, and an SPPF that grows cubically.
+ */
+public class ParseLimitsTest {
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+    private final GeneratedParser parser = new GeneratedParser(vf, new RascalGrammarToIguanaGrammarConverter().convert((IConstructor) TestRascal.eval("expand(#start[Ambiguous])")));
+    private final IConstructor start = (IConstructor) ((IConstructor) TestRascal.eval("#start[Ambiguous]")).get(0);
+    private final ISourceLocation src = URIUtil.rootLocation("test");
+
+    private static String ambiguous(int operands) {
+        StringBuilder input = new StringBuilder("a");
+        for (int i = 1; i < operands; i++) {
+            input.append("+a");
+        }
+        return input.toString();
+    }
+
+    // Parses the input with the limits, and returns the location of the ParseLimitExceeded for the limit.
+    private ISourceLocation exceeded(String limit, String text, ParseLimits limits) {
+        Input input = Input.fromString(text);
+        try {
+            parser.parse(start, input, src, new ParseOptions(false, false, AmbiguityPolicy.KEEP, limits));
+            fail("The parse did not exceed " + limit);
+            return null;
+        } catch (Throw e) {
+            IConstructor exception = (IConstructor) e.getException();
+            assertEquals("ParseLimitExceeded", exception.getName());
+            assertEquals(limit, ((IString) exception.get("limit")).getValue());
+            ISourceLocation location = (ISourceLocation) exception.get("location");
+            assertEquals(src, location.top());
+            if (location.hasOffsetLength()) {
+                assertTrue(location.getOffset() <= input.length());
+            }
+            return location;
+        }
+    }
+
+    @Test
+    public void timeout() {
+        exceeded("timeout", ambiguous(400), new ParseLimits(50, 0, 0));
+    }
+
+    // Iguana's node counts are checked after the parse, before the tree is built, so the location is the input.
+    @Test
+    public void maxNodes() {
+        assertEquals(src, exceeded("maxNodes", ambiguous(40), new ParseLimits(0, 1000, 0)));
+    }
+
+    @Test
+    public void maxBytes() {
+        exceeded("maxBytes", ambiguous(100), new ParseLimits(0, 0, 64 * 1024));
+    }
+
+    // Checked by GuardedInput, at the position that the parser reads.
+    @Test
+    public void cancelledWhileParsing() {
+        ISourceLocation location = exceeded("cancelled", ambiguous(100), new ParseLimits(0, 0, 0, () -> true));
+        assertTrue(location.hasOffsetLength());
+    }
+
+    // Only cancelled from the tree builder, which checks once per 1024 tree nodes, without a position.
+    @Test
+    public void cancelledWhileBuildingTheTree() {
+        BooleanSupplier fromBuilder = () -> StackWalker.getInstance().walk(frames ->
+            frames.anyMatch(frame -> frame.getClassName().equals(RascalParseTreeBuilder.class.getName())));
+        assertEquals(src, exceeded("cancelled", ambiguous(40), new ParseLimits(0, 0, 0, fromBuilder)));
+    }
+}
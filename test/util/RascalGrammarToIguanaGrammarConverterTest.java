@@ -0,0 +1,75 @@
+package util;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IValue;
+import org.iguana.grammar.Grammar;
+import org.iguana.regex.CharRange;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RascalGrammarToIguanaGrammarConverterTest {
+
+    // The rules are converted in parallel, but added in the order of the definitions, also when other conversions
+    // run at the same time.
+    @Test
+    public void parallelConversionEqualsSequentialConversion() throws Exception {
+        IConstructor grammar = TestRascal.picoGrammar();
+        Grammar sequential = new RascalGrammarToIguanaGrammarConverter().convert(grammar, false);
+        List<String> heads = sequential.getRules().stream().map(rule -> rule.getHead().getName()).collect(Collectors.toList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Grammar>> conversions = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                conversions.add(executor.submit(() -> new RascalGrammarToIguanaGrammarConverter().convert(grammar)));
+            }
+            for (Future<Grammar> conversion : conversions) {
+                Grammar parallel = conversion.get();
+                assertEquals(heads, parallel.getRules().stream().map(rule -> rule.getHead().getName()).collect(Collectors.toList()));
+                assertEquals(sequential.toString(), parallel.toString());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Equal symbols are converted once, also when they are different Rascal values.
+    @Test
+    public void repeatedSymbolsAreShared() throws Throwable {
+        RascalGrammarToIguanaGrammarConverter.ValueVisitor visitor = new RascalGrammarToIguanaGrammarConverter.ValueVisitor();
+        for (String symbol : new String[] { "sort(\"Statement\")", "lit(\"begin\")", "\\char-class([range(97,122)])", "\\iter-star(sort(\"Statement\"))" }) {
+            IValue first = TestRascal.eval(symbol);
+            IValue second = TestRascal.eval(symbol);
+            assertSame(symbol, first.accept(visitor), second.accept(visitor));
+        }
+    }
+
+    @Test
+    public void overlappingAndAdjacentRangesAreMerged() {
+        assertEquals(Arrays.asList(CharRange.in(1, 12), CharRange.in(20, 30)), RascalGrammarToIguanaGrammarConverter.ValueVisitor.normalize(
+            Arrays.asList(CharRange.in(20, 30), CharRange.in(5, 10), CharRange.in(1, 3), CharRange.in(4, 4), CharRange.in(8, 12))));
+    }
+
+    @Test
+    public void containedRangesAreMerged() {
+        assertEquals(Collections.singletonList(CharRange.in('a', 'z')), RascalGrammarToIguanaGrammarConverter.ValueVisitor.normalize(
+            Arrays.asList(CharRange.in('c', 'e'), CharRange.in('a', 'z'), CharRange.in('x', 'x'))));
+    }
+
+    @Test
+    public void disjointRangesAreSorted() {
+        assertEquals(Arrays.asList(CharRange.in('0', '9'), CharRange.in('a', 'z')), RascalGrammarToIguanaGrammarConverter.ValueVisitor.normalize(
+            Arrays.asList(CharRange.in('a', 'z'), CharRange.in('0', '9'))));
+    }
+}
@@ -0,0 +1,69 @@
+package util;
+
+import io.usethesource.vallang.IBool;
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import org.rascalmpl.interpreter.Evaluator;
+import org.rascalmpl.interpreter.env.GlobalEnvironment;
+import org.rascalmpl.interpreter.env.ModuleEnvironment;
+import org.rascalmpl.interpreter.load.StandardLibraryContributor;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.ValueFactoryFactory;
+
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+
+/**
+ * Runs Rascal code for the setup of the Java tests, e.g., to reify the Pico grammar.
+ */
+public class TestRascal {
+
+    private static Evaluator evaluator;
+
+    public static synchronized IValue eval(String expression) {
+        return getEvaluator().eval(null, expression, URIUtil.rootLocation("test")).getValue();
+    }
+
+    public static IConstructor picoGrammar() {
+        return (IConstructor) eval("expand(#start[Program])");
+    }
+
+    public static IConstructor picoStart() {
+        return (IConstructor) ((IConstructor) eval("#start[Program]")).get(0);
+    }
+
+    // Compares the tree of the Rascal parser with the tree of the generated parser, see util::Diagnose.
+    public static boolean sameTree(String type, ISourceLocation file) {
+        return ((IBool) eval("sameTreeTest(" + type + ", " + file + ")")).getValue();
+    }
+
+    public static boolean picoSameTree(String example) {
+        return sameTree("#start[Program]", picoExample(example));
+    }
+
+    // A Pico example, relative to the examples/pico directory
+    public static ISourceLocation picoExample(String name) {
+        try {
+            return URIUtil.createFileLocation(Paths.get("examples", "pico", name).toAbsolutePath().toString());
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Evaluator getEvaluator() {
+        if (evaluator == null) {
+            GlobalEnvironment heap = new GlobalEnvironment();
+            ModuleEnvironment root = heap.addModule(new ModuleEnvironment("$test$", heap));
+            evaluator = new Evaluator(ValueFactoryFactory.getValueFactory(), System.in, System.err, System.out, root, heap);
+            evaluator.addRascalSearchPathContributor(StandardLibraryContributor.getInstance());
+            try {
+                evaluator.addRascalSearchPath(URIUtil.createFileLocation(Paths.get("src").toAbsolutePath().toString()));
+            } catch (URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+            evaluator.doImport(null, "ParseTree", "util::Iguana", "util::Diagnose", "util::RegularLayout", "util::PicoTest", "lang::pico::\\syntax::Main");
+        }
+        return evaluator;
+    }
+}
@@ -0,0 +1,83 @@
+package util;
+
+import io.usethesource.vallang.ISourceLocation;
+import org.junit.Test;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TreeSerializerTest {
+
+    private final IRascalValueFactory vf = IRascalValueFactory.getInstance();
+    private final TreeSerializer serializer = new TreeSerializer(vf);
+
+    private ITree parse() {
+        ISourceLocation file = TestRascal.picoExample("fac.pico");
+        GeneratedParser parser = new GeneratedParser(vf, new RascalGrammarToIguanaGrammarConverter().convert(TestRascal.picoGrammar()));
+        return parser.parse(TestRascal.picoStart(), InputUtils.fromLocation(file), file);
+    }
+
+    private byte[] write(ITree tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(tree, out);
+        return out.toByteArray();
+    }
+
+    private ITree read(byte[] bytes) throws IOException {
+        return serializer.read(new ByteArrayInputStream(bytes), null);
+    }
+
+    private void assertCorrupt(byte[] bytes) {
+        try {
+            read(bytes);
+            fail("A corrupt tree file was read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void treesRoundTrip() throws IOException {
+        ITree tree = parse();
+        assertEquals(tree, read(write(tree)));
+    }
+
+    @Test
+    public void truncatedFilesAreCorrupt() throws IOException {
+        byte[] bytes = write(parse());
+        for (int length = 0; length < bytes.length; length += Math.max(1, bytes.length / 97)) {
+            assertCorrupt(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void lengthsAreChecked() throws IOException {
+        byte[] bytes = write(parse());
+        ByteBuffer.wrap(bytes).putInt(4, Integer.MAX_VALUE);
+        assertCorrupt(bytes);
+        ByteBuffer.wrap(bytes).putInt(4, -1);
+        assertCorrupt(bytes);
+    }
+
+    @Test
+    public void indicesAreChecked() throws IOException {
+        byte[] bytes = write(parse());
+        // The trees start with the index of the top location in the table, 0, which is replaced by 2^28 - 1.
+        int trees = 8 + ByteBuffer.wrap(bytes).getInt(4);
+        byte[] index = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F };
+        ByteBuffer corrupt = ByteBuffer.allocate(bytes.length + index.length - 1);
+        corrupt.put(bytes, 0, trees);
+        corrupt.putInt(ByteBuffer.wrap(bytes).getInt(trees) + index.length - 1);
+        corrupt.put(index);
+        corrupt.put(bytes, trees + 5, bytes.length - trees - 5);
+        assertCorrupt(corrupt.array());
+    }
+}